@@ -32,6 +32,7 @@ POSSIBILITY OF SUCH DAMAGE.
 
 package com.deltacontrols.virtualstat;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -44,7 +45,6 @@ import org.json.JSONObject;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.util.Log;
@@ -52,6 +52,21 @@ import android.util.Log;
 import com.deltacontrols.eweb.support.api.EwebConnection;
 import com.deltacontrols.eweb.support.api.FetchJSON;
 import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.virtualstat.store.CatalogStore;
+import com.deltacontrols.virtualstat.store.StatCache;
+import com.deltacontrols.virtualstat.store.StatCatalogParser;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
+import com.deltacontrols.virtualstat.store.StatStore;
+import com.deltacontrols.virtualstat.sync.AndroidConnectivitySource;
+import com.deltacontrols.virtualstat.sync.CircuitBreaker;
+import com.deltacontrols.virtualstat.sync.ConnectivityMonitor;
+import com.deltacontrols.virtualstat.sync.EwebSessionValidator;
+import com.deltacontrols.virtualstat.sync.HandlerScheduler;
+import com.deltacontrols.virtualstat.sync.OfflineWriteQueue;
+import com.deltacontrols.virtualstat.sync.PollScheduler;
+import com.deltacontrols.virtualstat.sync.StatRepository;
+import com.deltacontrols.virtualstat.sync.SyncMetrics;
+import com.deltacontrols.virtualstat.sync.WriteCoalescer;
 
 /**
  * Global Application object: Contains static functionality that pertains to the entire application
@@ -73,9 +88,113 @@ public class App extends Application {
         return mEwebConnection;
     }
 
+    // Write coalescer (only ONE for the entire application, all stats share its thread)
+    private static WriteCoalescer mWriteCoalescer;
+
+    public static synchronized WriteCoalescer getWriteCoalescer() {
+        if (mWriteCoalescer == null) {
+            mWriteCoalescer = new WriteCoalescer();
+        }
+        return mWriteCoalescer;
+    }
+
+    // Poll scheduler (only ONE for the entire application, refreshes for all stats are batched through it)
+    private static PollScheduler mPollScheduler;
+
+    public static synchronized PollScheduler getPollScheduler() {
+        if (mPollScheduler == null) {
+            mPollScheduler = new PollScheduler();
+        }
+        return mPollScheduler;
+    }
+
+    // Offline write queue (only ONE for the entire application, all stats share its journal)
+    private static OfflineWriteQueue mOfflineWriteQueue;
+    private static final String OFFLINE_WRITE_JOURNAL = "pending_writes.journal";
+
+    public static synchronized OfflineWriteQueue getOfflineWriteQueue() {
+        if (mOfflineWriteQueue == null) {
+            mOfflineWriteQueue = new OfflineWriteQueue(new File(getContext().getFilesDir(), OFFLINE_WRITE_JOURNAL));
+        }
+        return mOfflineWriteQueue;
+    }
+
+    // Circuit breaker (only ONE for the entire application, all stats talk to the same server)
+    private static CircuitBreaker mCircuitBreaker;
+
+    public static synchronized CircuitBreaker getCircuitBreaker() {
+        if (mCircuitBreaker == null) {
+            mCircuitBreaker = new CircuitBreaker();
+        }
+        return mCircuitBreaker;
+    }
+
+    // Connectivity monitor (only ONE for the entire application, resumes every stat's refresh once the network is back)
+    private static ConnectivityMonitor mConnectivityMonitor;
+
+    public static synchronized ConnectivityMonitor getConnectivityMonitor() {
+        if (mConnectivityMonitor == null) {
+            mConnectivityMonitor = new ConnectivityMonitor(new AndroidConnectivitySource(getContext()), new EwebSessionValidator(), new HandlerScheduler());
+            mConnectivityMonitor.start();
+        }
+        return mConnectivityMonitor;
+    }
+
+    // Stat cache (only ONE for the entire application, holds the parsed stat list so stats can be switched without a request)
+    public static long StatCacheMaxBytes = 512 * 1024;
+    private static StatCache mStatCache;
+
+    public static synchronized StatCache getStatCache() {
+        if (mStatCache == null) {
+            mStatCache = new StatCache(StatCacheMaxBytes);
+        }
+        return mStatCache;
+    }
+
+    // Catalog store (only ONE for the entire application, keeps the last stat list on disk for a fast start up)
+    private static CatalogStore mCatalogStore;
+
+    public static synchronized CatalogStore getCatalogStore() {
+        if (mCatalogStore == null) {
+            mCatalogStore = new CatalogStore(getContext().getFilesDir());
+        }
+        return mCatalogStore;
+    }
+
+    // Current stat store (only ONE for the entire application, shares the current stat between activities)
+    private static StatStore mStatStore;
+    private static final String CURRENT_STAT_JOURNAL = "current_stat.journal";
+
+    public static synchronized StatStore getStatStore() {
+        if (mStatStore == null) {
+            mStatStore = new StatStore(new File(getContext().getFilesDir(), CURRENT_STAT_JOURNAL));
+        }
+        return mStatStore;
+    }
+
+    // Stat repository (only ONE for the entire application, activities showing the same stat share it and its data refresh)
+    private static StatRepository mStatRepository;
+
+    public static synchronized StatRepository getStatRepository() {
+        if (mStatRepository == null) {
+            mStatRepository = new StatRepository();
+        }
+        return mStatRepository;
+    }
+
+    // Sync metrics (only ONE for the entire application, shown on the sync metrics debug screen)
+    private static SyncMetrics mSyncMetrics;
+
+    public static synchronized SyncMetrics getSyncMetrics() {
+        if (mSyncMetrics == null) {
+            mSyncMetrics = new SyncMetrics();
+        }
+        return mSyncMetrics;
+    }
+
     // Shared Pref tags
     public static final String SHARED_PREF_ID = "APP_SHARED_PREFS";
-    public static final String SHARED_PREF_CURRENT_STAT_JSON = "APP_CURRENT_STAT_JSON";
+    public static final String SHARED_PREF_CURRENT_STAT_JSON = "APP_CURRENT_STAT_JSON"; // Only read to import the stat saved by older versions
 
     public static int LongerReadTimeout = 9000 * 10; 
     
@@ -84,6 +203,7 @@ public class App extends Application {
         super.onCreate();
         mContext = this;
         mIsDemo = false;
+        getStatStore(); // Start loading the current stat before the first activity needs it
     }
 
     public static Context getContext() {
@@ -94,25 +214,44 @@ public class App extends Application {
         return (AudioManager) App.getContext().getSystemService(Context.AUDIO_SERVICE);
     }
 
-    public static void saveStatIntoSharedPreferences(String JSONStr) {
-        // Save statStr in shared preferences so that it can be used by other activities in the future.
-        SharedPreferences.Editor editor = App.getContext().getSharedPreferences(App.SHARED_PREF_ID, Context.MODE_PRIVATE).edit();
-        editor.putString(App.SHARED_PREF_CURRENT_STAT_JSON, JSONStr);
-        editor.commit();
+    /**
+     * Saves the current stat so that it can be used by other activities in the future; returns immediately (see {@link StatStore}).
+     */
+    public static void saveCurrentStat(StatDescriptor stat) {
+        getStatStore().saveCurrentStat(stat);
+    }
+
+    /**
+     * Saves the current stat given its system JSON (see {@link VirtualStat#loadFromJSON(String)}).
+     */
+    public static void saveCurrentStat(String JSONStr) {
+        try {
+            StatDescriptor stat = StatCatalogParser.parseStat(JSONStr);
+            if (stat != null) {
+                saveCurrentStat(stat);
+            }
+        } 
+        catch (Exception e) {
+            Log.e(App.TAG, "saveCurrentStat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The current stat, or null if none has been saved.
+     */
+    public static StatDescriptor getCurrentStat() {
+        return getStatStore().getCurrentStat();
     }
 
-    public static void removeStatFromSharedPreferences() {
-        SharedPreferences.Editor editor = App.getContext().getSharedPreferences(App.SHARED_PREF_ID, Context.MODE_PRIVATE).edit();
-        // editor.clear().commit();
-        editor.remove(App.SHARED_PREF_CURRENT_STAT_JSON);
-        editor.commit();
+    public static void removeCurrentStat() {
+        getStatStore().removeCurrentStat();
     }
 
     public static void setDemoMode(boolean set) {
         mIsDemo = set;
 
         if (set) {
-            App.removeStatFromSharedPreferences();
+            App.removeCurrentStat();
         }
     }
 
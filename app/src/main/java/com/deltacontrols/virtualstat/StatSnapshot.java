@@ -0,0 +1,183 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatSnapshot.java
+ */
+package com.deltacontrols.virtualstat;
+
+import com.deltacontrols.virtualstat.points.PointSchema;
+import com.deltacontrols.virtualstat.points.PointValue;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+import com.deltacontrols.virtualstat.store.StatJSONWriter;
+
+/**
+ * Immutable copy of a {@link VirtualStat} at a point in time. The stat publishes a new snapshot (through an atomic reference) every time 
+ * a user change, a refresh or a put result is applied; readers such as the fragments can use the latest snapshot from any thread without 
+ * locking and will always see a consistent set of values.
+ */
+public final class StatSnapshot {
+
+    /**
+     * Immutable copy of a single point.
+     */
+    public static final class PointSnapshot {
+        public final String ref;
+        public final String name;
+        public final String dataType;
+        public final String value;
+        public final String oldValue;
+        public final PointValue typedValue;
+        public final String valueFormatted;
+        public final VirtualStatPoint.Type type;
+        public final boolean isValid;
+        public final boolean isDirty;
+
+        PointSnapshot(VirtualStatPoint point) {
+            ref = point.getFullRef();
+            name = point.getName();
+            dataType = point.getDataType();
+            value = point.getValue();
+            oldValue = point.getOldValue();
+            typedValue = point.getTypedValue();
+            valueFormatted = point.getValueFormatted();
+            type = point.getType();
+            isValid = point.isValid();
+            isDirty = point.isDirty();
+        }
+
+        /**
+         * @return True if the point has a reference.
+         */
+        public boolean isSetup() {
+            return !ref.isEmpty();
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public final long version; // Increases with every snapshot published by the stat; readers can use it to skip redundant updates
+    public final String name;
+
+    public final PointSnapshot temp;
+    public final PointSnapshot tempSetpoint;
+    public final PointSnapshot outdoorTemp;
+    public final PointSnapshot lights1;
+    public final PointSnapshot lights2;
+    public final PointSnapshot lights3;
+    public final PointSnapshot lights4;
+    public final PointSnapshot fan;
+    public final PointSnapshot fanOverride;
+    public final PointSnapshot blinds;
+    public final PointSnapshot occupancy;
+    public final PointSnapshot timedOverride;
+
+    private final PointSnapshot[] points; // All points in slot order (see PointSchema)
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * Copies the stat; must be called by the stat's writer (ie. while no other thread is changing it).
+     */
+    StatSnapshot(VirtualStat stat, long version) {
+        this.version = version;
+        name = stat.Name;
+
+        points = new PointSnapshot[PointSchema.SlotCount];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new PointSnapshot(stat.getPoint(i));
+        }
+
+        temp = points[PointSchema.TEMP];
+        tempSetpoint = points[PointSchema.TEMP_SP];
+        outdoorTemp = points[PointSchema.OUTDOOR_TEMP];
+        lights1 = points[PointSchema.LIGHTS1];
+        lights2 = points[PointSchema.LIGHTS2];
+        lights3 = points[PointSchema.LIGHTS3];
+        lights4 = points[PointSchema.LIGHTS4];
+        fan = points[PointSchema.FAN];
+        fanOverride = points[PointSchema.FAN_OVERRIDE];
+        blinds = points[PointSchema.BLINDS];
+        occupancy = points[PointSchema.OCCUPANCY];
+        timedOverride = points[PointSchema.TIMED_OVERRIDE];
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Same as {@link VirtualStat#getPoint(int)}, for the snapshot.
+     */
+    public PointSnapshot getPoint(int slot) {
+        return points[slot];
+    }
+
+    /**
+     * Same as {@link VirtualStat#getLights(int)}, for the snapshot.
+     */
+    public PointSnapshot getLights(int index) {
+        if ((index < 0) || (index >= PointSchema.LightsCount)) {
+            return null;
+        }
+        return points[PointSchema.FirstLight + index];
+    }
+
+    /**
+     * @return The typed values of all the lights (see {@link com.deltacontrols.virtualstat.points.LightsPoint#getSummaryValueFormatted}).
+     */
+    public PointValue[] getLightsValues() {
+        PointValue[] values = new PointValue[PointSchema.LightsCount];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = points[PointSchema.FirstLight + i].typedValue;
+        }
+        return values;
+    }
+
+    /**
+     * @return True if none of the lights have a reference.
+     */
+    public boolean lightsDisabled() {
+        for (int i = 0; i < PointSchema.LightsCount; i++) {
+            if (points[PointSchema.FirstLight + i].isSetup()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a JSON String comparable to the JSON returned by enteliweb/api/views; see {@link VirtualStat#createSystemJSONString()}.
+     * 
+     * @return The string containing the system JSON representation of the snapshot
+     */
+    public String createSystemJSONString() {
+        return StatJSONWriter.toJSONString(this);
+    }
+}
@@ -33,16 +33,18 @@ package com.deltacontrols.virtualstat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONObject;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.deltacontrols.eweb.support.api.EwebConnection;
@@ -50,13 +52,28 @@ import com.deltacontrols.eweb.support.interfaces.GenericCallback;
 import com.deltacontrols.eweb.support.models.BACnetObjectValue;
 import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
 import com.deltacontrols.virtualstat.points.BlindsPoint;
+import com.deltacontrols.virtualstat.points.DirtySet;
 import com.deltacontrols.virtualstat.points.FanPoint;
 import com.deltacontrols.virtualstat.points.LightsPoint;
 import com.deltacontrols.virtualstat.points.OccupancyPoint;
+import com.deltacontrols.virtualstat.points.PointSchema;
 import com.deltacontrols.virtualstat.points.TempPoint;
 import com.deltacontrols.virtualstat.points.TimedOverridePoint;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint.SetBy;
+import com.deltacontrols.virtualstat.store.StatCatalogParser;
+import com.deltacontrols.virtualstat.store.StatCodec;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
+import com.deltacontrols.virtualstat.store.StatJSONWriter;
+import com.deltacontrols.virtualstat.sync.AdaptiveRefreshPolicy;
+import com.deltacontrols.virtualstat.sync.CircuitBreaker;
+import com.deltacontrols.virtualstat.sync.ConnectivityMonitor;
+import com.deltacontrols.virtualstat.sync.OfflineWriteQueue;
+import com.deltacontrols.virtualstat.sync.PollScheduler;
+import com.deltacontrols.virtualstat.sync.RefreshPolicy;
+import com.deltacontrols.virtualstat.sync.RetryPolicy;
+import com.deltacontrols.virtualstat.sync.WriteCoalescer;
+import com.deltacontrols.virtualstat.sync.WriteVerifier;
 
 /**
  * Contains the overall data model for a Virtual Stat; also contains the logic for syncing the data with the enteliWEB server if a connection is valid. 
@@ -110,6 +127,35 @@ public class VirtualStat {
     public OccupancyPoint Occupancy;
     public TimedOverridePoint TimedOverride;
 
+    // All points in slot order (see PointSchema); the named fields above refer to the same points.
+    private VirtualStatPoint[] points;
+
+    // Dirty flags of all points, one bit per slot; set by the points themselves when the user changes a value.
+    private final DirtySet dirty = new DirtySet();
+    private static final long ReadMask;     // Slots that are read and written by the sync loop
+    private static final long BulkMask;     // Slots included in markAll / restoreAll (ie. not child points)
+    static {
+        long read = 0, bulk = 0;
+        for (PointSchema.Slot slot : PointSchema.Slots) {
+            if (slot.has(PointSchema.READ)) {
+                read |= DirtySet.mask(slot.id);
+            }
+            if (!slot.has(PointSchema.CHILD)) {
+                bulk |= DirtySet.mask(slot.id);
+            }
+        }
+        ReadMask = read;
+        BulkMask = bulk;
+    }
+
+    /**
+     * All changes to the points (user changes, refresh and put results) are applied while holding modelLock, and each change publishes a new 
+     * immutable {@link StatSnapshot}; readers use {@link #getSnapshot()} and never need to lock.
+     */
+    private final Object modelLock = new Object();
+    private final AtomicReference<StatSnapshot> snapshot = new AtomicReference<StatSnapshot>();
+    private long snapshotVersion = 0;
+
     /**
      * VirtualStat can have a single data sync listener. Initialize to empty listener so we do not have to check for existence
      */
@@ -133,34 +179,39 @@ public class VirtualStat {
             String statLights1, String statLights2, String statLights3, String statLights4,
             String statFan, String statBlinds) {
         init();
-        Name = statName;
-        Temp = new TempPoint(statTempActual);
-        TempSetpoint = new TempPoint(statTempSP);
-        Fan = new FanPoint(statFan);
-        Lights1 = new LightsPoint(statLights1);
-        Lights2 = new LightsPoint(statLights2);
-        Lights3 = new LightsPoint(statLights3);
-        Lights4 = new LightsPoint(statLights4);
-        Blinds = new BlindsPoint(statBlinds);
-
+        synchronized (modelLock) {
+            Name = statName;
+            Temp.setFullRef(statTempActual);
+            TempSetpoint.setFullRef(statTempSP);
+            Fan.setFullRef(statFan);
+            Lights1.setFullRef(statLights1);
+            Lights2.setFullRef(statLights2);
+            Lights3.setFullRef(statLights3);
+            Lights4.setFullRef(statLights4);
+            Blinds.setFullRef(statBlinds);
+            publishSnapshot();
+        }
     }
 
   public VirtualStat(String statName, String statTempActual, String statTempSP, String statOutdoorTemp,
                      String statLights1, String statLights2, String statLights3, String statLights4,
                      String statFan, String statBlinds, String statOccupancy, String statTimedOverride) {
         init();
-        Name = statName;
-        Temp = new TempPoint(statTempActual);
-        TempSetpoint = new TempPoint(statTempSP);
-        OutdoorTemp = new TempPoint(statOutdoorTemp);
-        Fan = new FanPoint(statFan);
-        Lights1 = new LightsPoint(statLights1);
-        Lights2 = new LightsPoint(statLights2);
-        Lights3 = new LightsPoint(statLights3);
-        Lights4 = new LightsPoint(statLights4);
-        Blinds = new BlindsPoint(statBlinds);
-        Occupancy = new OccupancyPoint(statOccupancy);
-        TimedOverride = new TimedOverridePoint(statTimedOverride);
+        synchronized (modelLock) {
+            Name = statName;
+            Temp.setFullRef(statTempActual);
+            TempSetpoint.setFullRef(statTempSP);
+            OutdoorTemp.setFullRef(statOutdoorTemp);
+            Fan.setFullRef(statFan);
+            Lights1.setFullRef(statLights1);
+            Lights2.setFullRef(statLights2);
+            Lights3.setFullRef(statLights3);
+            Lights4.setFullRef(statLights4);
+            Blinds.setFullRef(statBlinds);
+            Occupancy.setFullRef(statOccupancy);
+            TimedOverride.setFullRef(statTimedOverride);
+            publishSnapshot();
+        }
   }
 
     // --------------------------------------------------------------------------------
@@ -170,44 +221,65 @@ public class VirtualStat {
      * Initializes properties; all points in VirtualStat will be initialized with default objects (should not be null).
      */
     public void init() {
-        Name = "";
+        synchronized (modelLock) {
+            Name = "";
+
+            if (points != null) {
+                for (VirtualStatPoint point : points) {
+                    point.attachDirtySet(null, 0); // Points from before the re-init no longer belong to the stat
+                }
+            }
+            points = PointSchema.createPoints();
+            dirty.clearAll(-1L);
+            for (int i = 0; i < points.length; i++) {
+                points[i].attachDirtySet(dirty, i);
+            }
+            Temp = (TempPoint) points[PointSchema.TEMP];
+            TempSetpoint = (TempPoint) points[PointSchema.TEMP_SP];
+            OutdoorTemp = (TempPoint) points[PointSchema.OUTDOOR_TEMP];
+            Lights1 = (LightsPoint) points[PointSchema.LIGHTS1];
+            Lights2 = (LightsPoint) points[PointSchema.LIGHTS2];
+            Lights3 = (LightsPoint) points[PointSchema.LIGHTS3];
+            Lights4 = (LightsPoint) points[PointSchema.LIGHTS4];
+            Fan = (FanPoint) points[PointSchema.FAN];
+            Blinds = (BlindsPoint) points[PointSchema.BLINDS];
+            Occupancy = (OccupancyPoint) points[PointSchema.OCCUPANCY];
+            TimedOverride = (TimedOverridePoint) points[PointSchema.TIMED_OVERRIDE];
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Returns the point in the given slot.
+     * 
+     * @param slot Slot id (see {@link PointSchema})
+     */
+    public VirtualStatPoint getPoint(int slot) {
+        return points[slot];
+    }
+
+    /**
+     * Returns the latest immutable snapshot of the stat; safe to call from any thread without locking.
+     */
+    public StatSnapshot getSnapshot() {
+        return snapshot.get();
+    }
 
-        Temp = new TempPoint();
-        TempSetpoint = new TempPoint();
-        OutdoorTemp = new TempPoint();
-        Lights1 = new LightsPoint();
-        Lights2 = new LightsPoint();
-        Lights3 = new LightsPoint();
-        Lights4 = new LightsPoint();
-        Fan = new FanPoint();
-        Blinds = new BlindsPoint();
-        Occupancy = new OccupancyPoint();
-        TimedOverride = new TimedOverridePoint();
+    /**
+     * Publishes a new snapshot of the current point values; must be called while holding modelLock.
+     */
+    private void publishSnapshot() {
+        snapshot.set(new StatSnapshot(this, ++snapshotVersion));
     }
 
     /**
      * Since VirtualStat "Lights" consists of up to 4 different lights, this function allows a caller to easily get access to the points based on a pseudo index.
      */
     public LightsPoint getLights(int index) {
-        LightsPoint light;
-
-        switch (index) {
-            case 0:
-                light = this.Lights1;
-                break;
-            case 1:
-                light = this.Lights2;
-                break;
-            case 2:
-                light = this.Lights3;
-                break;
-            case 3:
-                light = this.Lights4;
-                break;
-            default:
-                light = null;
+        if ((index < 0) || (index >= PointSchema.LightsCount)) {
+            return null;
         }
-        return light;
+        return (LightsPoint) points[PointSchema.FirstLight + index];
     }
 
     /**
@@ -218,16 +290,59 @@ public class VirtualStat {
      * @param newValue The new value for the point
      */
     public void setValue(VirtualStatPoint point, String newValue) {
-        if (point.setValue(newValue, VirtualStatPoint.SetBy.USER)) {
+        boolean changed;
+
+        synchronized (modelLock) {
+            changed = point.setValue(newValue, VirtualStatPoint.SetBy.USER);
+            if (changed) {
+                markEdited();
+                publishSnapshot();
+            }
+        }
+
+        if (changed) {
             startSyncTimer();
         }
     }
 
     /**
-     * Exposes the ability to force an update to enteliWEB if a connection exists. NOTE This currently exists because the Fan point behaves differently 
-     * and does not use the VirtualStat.setValue method.
+     * Sets a point's value as the system (ie. the UI settling a value on its display format); the point is not marked as changed by the 
+     * user, so nothing is sent to enteliWEB.
+     * 
+     * @param point The point object to update
+     * @param newValue The new value for the point
+     */
+    public void setSystemValue(VirtualStatPoint point, String newValue) {
+        synchronized (modelLock) {
+            point.setValue(newValue, VirtualStatPoint.SetBy.SYSTEM);
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Sets the fan to manual (or back to auto) and forces an update to enteliWEB. The fan does trickery for setting the manual state (an 
+     * analog fan uses its override point), so this does not go through the VirtualStat.setValue method.
+     * 
+     * @param manual True for manual, false for auto
+     */
+    public void setFanManualState(boolean manual) {
+        synchronized (modelLock) {
+            Fan.setManualState(manual, VirtualStatPoint.SetBy.USER);
+            markEdited();
+            publishSnapshot();
+        }
+        startSyncTimer();
+    }
+
+    /**
+     * Exposes the ability to force an update to enteliWEB if a connection exists (ie. to send user changes that were made while the stat 
+     * was not loaded).
      */
     public void forcePut() {
+        synchronized (modelLock) {
+            markEdited();
+            publishSnapshot();
+        }
         startSyncTimer();
     }
 
@@ -237,13 +352,21 @@ public class VirtualStat {
      * @param jsonStr JSON String as expected from the enteliweb/api/views service.
      */
     public void loadFromJSON(String jsonStr) {
+        StatDescriptor descriptor;
+
         try {
-        	JSONObject jsonObj = new JSONObject(jsonStr);        	
-            loadFromJSON(jsonObj);
+            descriptor = StatCatalogParser.parseStat(jsonStr);
         } 
         catch (Exception e) {
             Log.e(App.TAG, "loadFromJSON: " + e.getMessage());
+            return;
+        }
+
+        if (descriptor == null) {
+            // Invalid JSON
+            return;
         }
+        loadFromDescriptor(descriptor);
     }
 
     /**
@@ -253,109 +376,59 @@ public class VirtualStat {
      *            JSONObject as expected from the enteliweb/api/views/Virtual+Stat service.
      */
     public void loadFromJSON(JSONObject statJSON) {
-        /* Expected format of JSONObject
-        April's Virtual Stat: {
-        $base: "Collection"
-            April's Virtual Stat: {
-            $base: "Struct"
-                nodeType: "System"
-                location: {...}-
-                address: {...}-
-                description: {...}-
-                template: {...}-
-                Objects: {
-                    $base: "Struct"
-                    BLINDS: {
-                    $base: "Enumerated"
-                    value: "inactive"
-                    displayName: "PAC_Office_01_VAV WS"
-                    description: ""
-                    physical: "/.bacnet/enteliVIZ5 Training/20101/binary-value,1"
-                    }-
-                    FAN: {
-                    $base: "Unsigned"
-                    value: "1"
-                    displayName: "PAC_Office_01_VAV AirFlowControlMode"
-                    description: ""
-                    physical: "/.bacnet/enteliVIZ5 Training/20101/multi-state-value,1"
-                    }
-                }
-                .....
-            }
-        }
-        */
+        loadFromJSON(statJSON.toString());
+    }
 
-        // Re-init the stat as we are loading in new values.
-        init();
+    /**
+     * Given the descriptor of an entire Virtual Stat system (see {@link StatCatalogParser}), load the stat and all of it's required points.
+     * 
+     * @param descriptor Stat descriptor, from the stat catalog or a previous snapshot.
+     */
+    public void loadFromDescriptor(StatDescriptor descriptor) {
+        String resultStatus = "OK";
 
-        @SuppressWarnings("unchecked")
-        Iterator<String> iter = statJSON.keys();
-        String systemName = (iter.hasNext()) ? iter.next() : null;
-        JSONObject json;
+        synchronized (modelLock) {
+            // Re-init the stat as we are loading in new values.
+            init();
+            this.Name = descriptor.name;
 
-        if (systemName == null) {
-            // Invalid JSON
-            return;
-        }
+            // Parse out system points
+            VirtualStatPoint point;
+            String value, errorText;
 
-        // Parse out system info
-        try {
-            json = statJSON.getJSONObject(systemName);
-            this.Name = systemName;
-            //this.ID = json.getString("id");
-        } catch (Exception e) {
-            json = new JSONObject();
-            Log.e(App.TAG, "Error parsing Stat JSON: " + e.getMessage());
-        }
+            for (PointSchema.Slot slot : PointSchema.Slots) {
+                point = points[slot.id];
 
-        // Parse out system points
-        String[] eles = new String[] { "TEMP", "TEMP_SP", "OUTDOOR_TEMP", "LIGHTS1", "LIGHTS2", "LIGHTS3", "LIGHTS4", "FAN", "BLINDS", "OCCUPANCY", "TIMED_OVERRIDE" };
-        VirtualStatPoint points[] = { this.Temp, this.TempSetpoint, this.OutdoorTemp, this.Lights1, this.Lights2, this.Lights3, this.Lights4, this.Fan, this.Blinds, this.Occupancy, this.TimedOverride };
-        VirtualStatPoint point;
-        JSONObject pointObj;
-        String resultStatus = "OK";
-        String value;
+                if (!descriptor.has(slot.id)) {
+                    Log.e(App.TAG, "Json point - no value for " + slot.key);
+                    continue;
+                }
 
-        for (int i = 0; i < eles.length; i++) {
-            try {
-                point = points[i];
-                pointObj = json.getJSONObject(eles[i]);
-            } 
-            catch (Exception e) {
-                Log.e(App.TAG, "Json point - " + e.getMessage());
-                continue;
-            }
+                // Load each point via its descriptor fields
+                point.load(descriptor.get(slot.id, StatDescriptor.PHYSICAL), descriptor.get(slot.id, StatDescriptor.VALUE), 
+                        descriptor.get(slot.id, StatDescriptor.DISPLAY_NAME), descriptor.get(slot.id, StatDescriptor.BASE));
+
+                // Child points (ie. the fan override) are controlled by their parent; load quietly.
+                if (slot.has(PointSchema.CHILD)) {
+                    continue;
+                }
 
-            // Load each point via its JSON
-            if (pointObj instanceof JSONObject) {
-                point.loadFromJSON(pointObj);
                 value = point.getValue();
+                errorText = descriptor.get(slot.id, StatDescriptor.ERROR_TEXT);
 
                 // Check for error: old method - value contains QERR
                 if (value.startsWith("QERR")) {
                     resultStatus = value;
                 }
                 // New method: JSON contains errorText property
-                else if (pointObj.has("errorText")) {
-                    try {
-                        resultStatus = "QERR_" + pointObj.getString("errorText");
-                    	//resultStatus = "QERR";                        
-                        point.setValue(resultStatus, SetBy.SYSTEM); // Update value so it will get displayed correctly
-                        
-                    } catch (Exception e) {
-                        Log.e(App.TAG, "Error loading error text");
-                    }
-
+                else if (errorText != null) {
+                    resultStatus = "QERR_" + errorText;
+                    point.setValue(resultStatus, SetBy.SYSTEM); // Update value so it will get displayed correctly
                 }
             }
-        }
 
-        // Get fan override (slightly different, FanPoint contains logic for controlling it, not the Virtual Stat)
-        try {
-            this.Fan.override.loadFromJSON(json.getJSONObject("FAN_OVERRIDE"));
-        } 
-        catch (Exception e) {
-            Log.e(App.TAG, "Error loading fan json");
+            rebuildIndex();
+            publishSnapshot();
         }
 
         // Call listener functions
@@ -366,7 +439,8 @@ public class VirtualStat {
     }
 
     /**
-     * Creates a JSON String comparable to the JSON returned by enteliweb/api/views; some attributes, including $base, are omitted.
+     * Creates a JSON String comparable to the JSON returned by enteliweb/api/views; only the point properties read back by 
+     * {@link #loadFromJSON(String)} are written (see {@link StatJSONWriter}).
      * 
      * @return The string containing the system JSON representation of the Virtual Stat
      */
@@ -398,39 +472,87 @@ public class VirtualStat {
         }
         */
 
-        String[] args = new String[] { this.Name,
-                "TEMP", this.Temp.getDataType(),  this.Temp.getValue(), this.Temp.getFullRef(), this.Temp.getName(),
-                "TEMP_SP", this.TempSetpoint.getDataType(), this.TempSetpoint.getValue(), this.TempSetpoint.getFullRef(), this.TempSetpoint.getName(),
-                "OUTDOOR_TEMP", this.OutdoorTemp.getDataType(), this.OutdoorTemp.getValue(), this.OutdoorTemp.getFullRef(), this.OutdoorTemp.getName(),
-                "LIGHTS1", this.Lights1.getDataType(), this.Lights1.getValue(), this.Lights1.getFullRef(), this.Lights1.getName(),
-                "LIGHTS2", this.Lights2.getDataType(), this.Lights2.getValue(), this.Lights2.getFullRef(), this.Lights2.getName(),
-                "LIGHTS3", this.Lights3.getDataType(), this.Lights3.getValue(), this.Lights3.getFullRef(), this.Lights3.getName(),
-                "LIGHTS4", this.Lights4.getDataType(), this.Lights4.getValue(), this.Lights4.getFullRef(), this.Lights4.getName(),
-                "FAN", this.Fan.getDataType(), this.Fan.getValue(), this.Fan.getFullRef(), this.Fan.getName(),
-                "FAN_OVERRIDE", this.Fan.override.getDataType(), this.Fan.override.getValue(), this.Fan.override.getFullRef(), this.Fan.override.getName(),
-                "BLINDS", this.Blinds.getDataType(), this.Blinds.getValue(), this.Blinds.getFullRef(), this.Blinds.getName(),
-                "OCCUPANCY", this.Occupancy.getDataType(), this.Occupancy.getValue(), this.Occupancy.getFullRef(), this.Occupancy.getName(),
-                "TIMED_OVERRIDE", this.Occupancy.getDataType(), this.Occupancy.getValue(), this.Occupancy.getFullRef(), this.Occupancy.getName()
-        };
-
-        // Note, only format the parts we care about parsing back out.
-        String jsonStr = String.format("{ \"%s\": { " + // name
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // TEMP
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // TEMP_SP
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // OUTDOOR_TEMP
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS1
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS2
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS3
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS4
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // FAN
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // FAN_OVERRIDE
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" },  " + // BLINDS
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" },  " + // OCCUPANCY
-                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }  " + // TIMED_OVERRIDE
-                "}}", (Object[]) args);
-
-        //Log.e(App.TAG, " JSon: " + jsonStr);
-        return jsonStr;
+        // Serialize a fresh copy rather than the last published snapshot; callers may have changed the point references directly.
+        synchronized (modelLock) {
+            return new StatSnapshot(this, snapshotVersion).createSystemJSONString();
+        }
+    }
+
+    /**
+     * Creates a descriptor of the stat, with its current point references and values; used to save the stat (see {@link App#saveCurrentStat}).
+     * 
+     * @return The stat descriptor
+     */
+    public StatDescriptor createDescriptor() {
+        // Describe a fresh copy rather than the last published snapshot; callers may have changed the point references directly.
+        synchronized (modelLock) {
+            return StatDescriptor.fromSnapshot(new StatSnapshot(this, snapshotVersion));
+        }
+    }
+
+    /**
+     * Checks if the stat was loaded from the given descriptor (same name and point references); if so there is no need to reload it.
+     * 
+     * @param descriptor Stat descriptor, ie. the current stat from {@link App#getCurrentStat()}
+     */
+    public boolean isLoadedFrom(StatDescriptor descriptor) {
+        if ((descriptor == null) || !descriptor.name.equals(Name)) {
+            return false;
+        }
+        return createDescriptor().sameStructure(descriptor);
+    }
+
+    /**
+     * Encodes the full state of the stat, including unsent user changes and old values (see {@link StatCodec}); used to hand the stat to 
+     * another activity.
+     * 
+     * @return The encoded stat
+     */
+    public byte[] toBytes() {
+        synchronized (modelLock) {
+            return StatCodec.encode(this);
+        }
+    }
+
+    /**
+     * Loads the stat from data created by {@link #toBytes()}.
+     * 
+     * @param data The encoded stat
+     * @return True if loaded; false if the data could not be decoded (the stat is left empty).
+     */
+    public boolean loadFromBytes(byte[] data) {
+        String resultStatus = "OK";
+        boolean loaded;
+
+        synchronized (modelLock) {
+            // Re-init the stat as we are loading in new values.
+            init();
+            loaded = StatCodec.decode(data, this);
+            if (!loaded) {
+                init();
+            }
+
+            for (PointSchema.Slot slot : PointSchema.Slots) {
+                if (!slot.has(PointSchema.CHILD) && points[slot.id].getTypedValue().isError()) {
+                    resultStatus = points[slot.id].getValue();
+                }
+            }
+
+            rebuildIndex();
+            publishSnapshot();
+        }
+
+        // Call listener functions
+        if (loaded && (syncListener != null)) {
+            syncListener.onStatusUpdate(resultStatus);
+            syncListener.onDataUpdate();
+        }
+
+        // User changes that had not been sent yet are sent from here.
+        if (loaded && !dirty.isEmpty()) {
+            forcePut();
+        }
+        return loaded;
     }
 
     /**
@@ -440,21 +562,19 @@ public class VirtualStat {
      * @return ArrayList of points depending on the onlyDirty flag.
      */
     public ArrayList<VirtualStatPoint> getPoints(boolean onlyDirty) {
-        String tempRef;
-        ArrayList<VirtualStatPoint> points = new ArrayList<VirtualStatPoint>();
-        ArrayList<VirtualStatPoint> all = new ArrayList<VirtualStatPoint>(Arrays.asList(Temp, TempSetpoint, OutdoorTemp,
-                Lights1, Lights2, Lights3, Lights4, Fan, Fan.override, Blinds));
-
-        for (VirtualStatPoint point : all) {
-            tempRef = point.getFullRef();
-
-            // If ref not empty AND we want a dirty value (and value is dirty) or we want all values then add to list.
-            if (!tempRef.isEmpty() && ((onlyDirty && point.isDirty) || (!onlyDirty))) {
-                points.add(point);
+        synchronized (modelLock) {
+            ensureIndex();
+            ArrayList<VirtualStatPoint> points = new ArrayList<VirtualStatPoint>(indexedPoints.length);
+
+            for (VirtualStatPoint point : indexedPoints) {
+                // Index only contains non-empty refs; add if we want all values or we want a dirty value (and value is dirty).
+                if (!onlyDirty || point.isDirty()) {
+                    points.add(point);
+                }
             }
-        }
 
-        return points;
+            return points;
+        }
     }
 
     /**
@@ -462,22 +582,21 @@ public class VirtualStat {
      */
     public BACnetObjectValueList toBACnetObjectValueList(boolean onlyDirty) {
         BACnetObjectValueList result = new BACnetObjectValueList();
-
         String tempRef;
 
-        ArrayList<VirtualStatPoint> all = new ArrayList<VirtualStatPoint>(Arrays.asList(Temp, TempSetpoint, OutdoorTemp,
-                Lights1, Lights2, Lights3, Lights4, Fan, Fan.override, Blinds));
-
-        for (VirtualStatPoint point : all) {
-            tempRef = point.getFullRef();
-
-            // If ref not empty AND we want a dirty value (and value is dirty) or we want all values then add to list.
-            if (!tempRef.isEmpty() && ((onlyDirty && point.isDirty) || (!onlyDirty))) {
-                BACnetObjectValue obj = new BACnetObjectValue(tempRef);
-                obj.via.property = "present-value"; // For now ALWAYS set to present-value of the object
-                obj.value = point.getValue();
-                obj.dataType = point.getDataType();
-                result.put(tempRef, obj);
+        synchronized (modelLock) {
+            ensureIndex();
+            for (VirtualStatPoint point : indexedPoints) {
+                tempRef = point.getFullRef();
+
+                // Index only contains non-empty refs; add if we want all values or we want a dirty value (and value is dirty).
+                if (!onlyDirty || point.isDirty()) {
+                    BACnetObjectValue obj = new BACnetObjectValue(tempRef);
+                    obj.via.property = "present-value"; // For now ALWAYS set to present-value of the object
+                    obj.value = point.getValue();
+                    obj.dataType = point.getDataType();
+                    result.put(tempRef, obj);
+                }
             }
         }
 
@@ -492,71 +611,186 @@ public class VirtualStat {
      */
     public ArrayList<String> getFullRefs(boolean onlyDirty) {
 
-        ArrayList<String> refs = new ArrayList<String>();
-        ArrayList<VirtualStatPoint> points = getPoints(onlyDirty);
-        String fullRef;
+        synchronized (modelLock) {
+            ensureIndex();
+            ArrayList<String> refs = new ArrayList<String>(indexedPoints.length);
+            HashSet<String> seen = new HashSet<String>();
+
+            for (VirtualStatPoint point : indexedPoints) {
+                if ((!onlyDirty || point.isDirty()) && seen.add(point.getFullRef())) {
+                    refs.add(point.getFullRef());
+                }
+            }
 
-        for (VirtualStatPoint point : points) {
-            fullRef = point.getFullRef();
+            return refs;
+        }
+    }
 
-            if (!refs.contains(fullRef)) {
-                refs.add(fullRef);
+    // --------------------------------------------------------------------------------
+    // Reference index
+    // Points with a reference, and the key eWEB returns their values under, are indexed once per stat configuration so that 
+    // responses can be applied without building point lists or lower casing references on every refresh.
+    // --------------------------------------------------------------------------------
+    private static final int IndexSlots = PointSchema.ReadCount; // Number of points that are read and written (see getIndexSlot)
+    private static final int[] ReadSlots = new int[IndexSlots];  // Slot id of each index slot
+    static {
+        int i = 0;
+        for (PointSchema.Slot slot : PointSchema.Slots) {
+            if (slot.has(PointSchema.READ)) {
+                ReadSlots[i++] = slot.id;
             }
         }
+    }
+
+    private final VirtualStatPoint[] indexSlotPoints = new VirtualStatPoint[IndexSlots]; // Point in each slot when the index was built
+    private final String[] indexSlotRefs = new String[IndexSlots];                      // Reference of each slot when the index was built
+    private VirtualStatPoint[] indexedPoints = new VirtualStatPoint[0];                 // Points with a non-empty reference
+    private String[] indexedKeys = new String[0];                                       // Lower cased, interned reference for each indexed point
+    private BACnetObjectValueList readRequest = new BACnetObjectValueList();            // Refresh request for the indexed points; never modified once built
+    private long[] confirmSentAt = new long[0];                                         // Uptime each indexed point's last put was sent at; -1 once confirmed
+    private String[] confirmValue = new String[0];                                      // Value each indexed point's last put is waiting to see confirmed
+    private final int[] indexBySlot = new int[PointSchema.SlotCount];                  // Position of each slot's point in indexedPoints; -1 if not indexed
+    private int[] verifyGenerations = new int[0];                                       // Write generation each indexed point is being verified at; -1 if not
 
-        return refs;
+    /**
+     * Returns the point for the given index slot; the order matches the order points have always been sent to eWEB in.
+     */
+    private VirtualStatPoint getIndexSlot(int slot) {
+        return points[ReadSlots[slot]];
+    }
+
+    /**
+     * Rebuilds the index if any point (or its reference) has been replaced since it was last built. The check compares identities only, 
+     * so it does not allocate. The index (and everything built with it) is only read or rebuilt while holding modelLock.
+     */
+    private void ensureIndex() {
+        for (int i = 0; i < IndexSlots; i++) {
+            VirtualStatPoint point = getIndexSlot(i);
+
+            if ((indexSlotPoints[i] != point) || ((point != null) && (indexSlotRefs[i] != point.getFullRef()))) {
+                rebuildIndex();
+                return;
+            }
+        }
+    }
+
+    private void rebuildIndex() {
+        ArrayList<VirtualStatPoint> points = new ArrayList<VirtualStatPoint>(IndexSlots);
+
+        Arrays.fill(indexBySlot, -1);
+        for (int i = 0; i < IndexSlots; i++) {
+            VirtualStatPoint point = getIndexSlot(i);
+
+            indexSlotPoints[i] = point;
+            indexSlotRefs[i] = (point != null) ? point.getFullRef() : null;
+            if ((point != null) && !point.getFullRef().isEmpty()) {
+                indexBySlot[ReadSlots[i]] = points.size();
+                points.add(point);
+            }
+        }
+
+        indexedPoints = points.toArray(new VirtualStatPoint[points.size()]);
+        indexedKeys = new String[indexedPoints.length];
+        for (int i = 0; i < indexedPoints.length; i++) {
+            indexedKeys[i] = indexedPoints[i].getFullRef().toLowerCase().intern(); // eWEB returns lower case references
+        }
+
+        confirmSentAt = new long[indexedPoints.length];
+        confirmValue = new String[indexedPoints.length];
+        Arrays.fill(confirmSentAt, -1);
+        verifyGenerations = new int[indexedPoints.length];
+        Arrays.fill(verifyGenerations, -1);
+
+        // A read only needs the reference and property, so the request is built once here rather than on every refresh. A new list is 
+        // created (instead of clearing the old one) as a previous request may still be in use by the poll scheduler.
+        BACnetObjectValueList request = new BACnetObjectValueList();
+        for (VirtualStatPoint point : indexedPoints) {
+            BACnetObjectValue obj = new BACnetObjectValue(point.getFullRef());
+            obj.via.property = "present-value"; // For now ALWAYS read the present-value of the object
+            request.put(point.getFullRef(), obj);
+        }
+        readRequest = request;
+    }
+
+    /**
+     * Builds the put request for all dirty points in a single pass; each point added is marked as sent (non-dirty, new write generation). 
+     * Must be called while holding modelLock.
+     * 
+     * @return The put request; empty if no points are dirty.
+     */
+    private BACnetObjectValueList buildWriteRequest() {
+        BACnetObjectValueList request = new BACnetObjectValueList();
+        long now = SystemClock.uptimeMillis();
+        VirtualStatPoint point;
+
+        ensureIndex();
+
+        // Visit the dirty points only
+        long bits = dirty.get() & ReadMask;
+        while (bits != 0) {
+            int slot = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+
+            int i = indexBySlot[slot];
+            if (i < 0) {
+                continue; // No reference
+            }
+            point = indexedPoints[i];
+
+            BACnetObjectValue obj = new BACnetObjectValue(point.getFullRef());
+            obj.via.property = "present-value"; // For now ALWAYS set to present-value of the object
+            obj.value = point.getValue();
+            obj.dataType = point.getDataType();
+            request.put(point.getFullRef(), obj);
+
+            // Bump the write generation of every point being sent; a read that is currently out will skip these points as their values are stale.
+            point.markWriteSent();
+            point.setDirty(false);
+
+            confirmSentAt[i] = now;
+            confirmValue[i] = point.getValue();
+            verifyGenerations[i] = point.getWriteGeneration();
+        }
+
+        return request;
     }
 
     /**
      * Sets all stat object's dirty flags to false
      */
     public void markAllAsNonDirty() {
-        Temp.isDirty = false;
-        TempSetpoint.isDirty = false;
-        OutdoorTemp.isDirty = false;
-        Lights1.isDirty = false;
-        Lights2.isDirty = false;
-        Lights3.isDirty = false;
-        Lights4.isDirty = false;
-        Fan.isDirty = false;
-        Blinds.isDirty = false;
-        Occupancy.isDirty = false;
-        TimedOverride.isDirty = false;
+        synchronized (modelLock) {
+            dirty.clearAll(BulkMask);
+            publishSnapshot();
+        }
     }
 
     /**
      * Sets all stat object's dirty flags to true
      */
     public void markAllAsDirty() {
-        Temp.isDirty = true;
-        TempSetpoint.isDirty = true;
-        OutdoorTemp.isDirty = true;
-        Lights1.isDirty = true;
-        Lights2.isDirty = true;
-        Lights3.isDirty = true;
-        Lights4.isDirty = true;
-        Fan.isDirty = true;
-        Blinds.isDirty = true;
-        Occupancy.isDirty = true;
-        TimedOverride.isDirty = true;
+        synchronized (modelLock) {
+            dirty.setAll(BulkMask);
+            publishSnapshot();
+        }
     }
 
     /**
-     * Sets all stat object's dirty flags to false, and then restores all values to their old value.
+     * Sets all stat object's dirty flags to false, and then restores all values to their old value; values with a write pending in the 
+     * {@link OfflineWriteQueue} keep showing the pending value.
      */
     public void restoreAllToLastKnownValue() {
-        markAllAsNonDirty();
-        Temp.restoreOldValueIfNotDirty(); // Shouldn't be able to change, but set just in case.
-        TempSetpoint.restoreOldValueIfNotDirty();
-        OutdoorTemp.restoreOldValueIfNotDirty();
-        Lights1.restoreOldValueIfNotDirty();
-        Lights2.restoreOldValueIfNotDirty();
-        Lights3.restoreOldValueIfNotDirty();
-        Lights4.restoreOldValueIfNotDirty();
-        Fan.restoreOldValueIfNotDirty();
-        Blinds.restoreOldValueIfNotDirty();
-        Occupancy.restoreOldValueIfNotDirty();
-        TimedOverride.restoreOldValueIfNotDirty();
+        OfflineWriteQueue queue = App.getOfflineWriteQueue();
+
+        synchronized (modelLock) {
+            markAllAsNonDirty();
+            for (PointSchema.Slot slot : PointSchema.Slots) {
+                if (!slot.has(PointSchema.CHILD) && (queue.get(points[slot.id].getFullRef()) == null)) {
+                    points[slot.id].restoreOldValueIfNotDirty(); // Temp shouldn't be able to change, but set just in case.
+                }
+            }
+            publishSnapshot();
+        }
     }
 
     /**
@@ -576,18 +810,18 @@ public class VirtualStat {
         //  put here for saftey. No guarantees made on which object's value will be 'put'.
         // NOTE: May want to simply remove this since the case is so uncommon.
 
-        // NOTE: Do not return Temp - it is intended to be read only.
-        VirtualStatPoint[] points = new VirtualStatPoint[] { TempSetpoint, Lights1, Lights2, Lights3, Lights4, Fan, Fan.override, Blinds, Occupancy, TimedOverride };
+        // NOTE: Only writable points are included; ie. Temp is intended to be read only.
         VirtualStatPoint point;
 
         // Do not need XML tag? "<?xml version=\"1.0\" encoding\"UTF-8\"?>";
         xml.append("<PropertyList>");
-        for (int i = 0; i < points.length; i++) {
-            point = points[i];
+        for (PointSchema.Slot slot : PointSchema.Slots) {
+            point = points[slot.id];
             // Only include points that are setup
-            if ((!point.getFullRef().equals(""))
-                    && (!point.getValue().startsWith("QERR"))
-                    && (!point.getValue().equals(VirtualStatPoint.NotInitializedString))) {
+            if (slot.has(PointSchema.WRITE)
+                    && (!point.getObjectRef().isEmpty())
+                    && (!point.getTypedValue().isError())
+                    && (point.getTypedValue().isInitialized())) {
                 xml.append(point.asXMLStr());
             }
         }
@@ -604,41 +838,58 @@ public class VirtualStat {
         IDLE, PENDING_REQUEST, REQUEST_SENT, REQUEST_RECIEVED
     };
 
-    private static SyncState getState = SyncState.IDLE;
-    private static SyncState putState = SyncState.IDLE;
+    private SyncState getState = SyncState.IDLE;
+    private SyncState putState = SyncState.IDLE;
 
     // -------------------------------------------------------------------------------------
-    // Variables for authentication retry functionality
+    // Variables for retry functionality
     // -------------------------------------------------------------------------------------
-    private int backgroundFetchRetry = MaxBackgroundFetchRetry; // Keep track on how many retry on authentication
-    private static int MaxBackgroundFetchRetry = 3;
+    // Reads and writes have separate budgets so a failing put does not use up the retries of the refresh (and vice versa). Once the 
+    // read budget is used up on a connection error the application wide circuit breaker is tripped; the stat then waits for it to close.
+    private RetryPolicy readRetry = new RetryPolicy(5, 2000, 60000);
+    private RetryPolicy writeRetry = new RetryPolicy(3, 1000, 30000);
+    private static final long CircuitResumeSpread = 3000; // Stats resume within this window (ms) once the breaker closes
+    private Handler retryHandler = new Handler(Looper.getMainLooper());
 
     // -------------------------------------------------------------------------------------
     // Variables for 'put' functionality
     // -------------------------------------------------------------------------------------
-    private Timer syncTimer; // Timer controlling the put sync with eWEB
-    private long syncTimerDelay = 1000; // Delay before sending the put (in milliseconds)
+    private long syncTimerDelay = 1000; // Delay before sending the put (in milliseconds); writes within this window are coalesced
+    private long firstEditAt = -1;      // Uptime of the first user change not yet sent; -1 if there is none (for metrics)
+    private BACnetObjectValueList lastWrite; // The last put sent; verified once the put succeeds
+    private WriteVerifier writeVerifier;
 
     // -------------------------------------------------------------------------------------
     // Variables for 'get' functionality
     // -------------------------------------------------------------------------------------
-    // private boolean isGettingData = false; // Flags when a get is in process
-    private boolean ignoreNextGet = false; // Flags when we know the get response may be stale
+    private RefreshPolicy refreshPolicy = new AdaptiveRefreshPolicy(); // Decides the delay between refreshes
+    private boolean background = false;
+    private long lastReadAt = -1; // Uptime (ms) of the last refresh result; -1 if none yet
 
-    Handler refreshHandler = new Handler(); // Handler for the refresh functionality
-    private final long refreshTimeout = 10000; // Refresh timeout in milliseconds
-    private Runnable refreshDataTask = new Runnable() { // Runnable task executed by the handler via timeout
-        @Override
-        public void run() {
-            EwebConnection eweb = App.getEwebConnection();
+    /**
+     * Replaces the policy used to decide how often the stat is refreshed (ie. {@link com.deltacontrols.virtualstat.sync.FixedRefreshPolicy}).
+     */
+    public void setRefreshPolicy(RefreshPolicy policy) {
+        refreshPolicy = policy;
+    }
 
-            BACnetObjectValueList refs = toBACnetObjectValueList(false); // Get all
-            if (refs.size() > 0) {
-                putState = SyncState.REQUEST_SENT;
-                eweb.getMulti(refs, getPropertyListener);
-            }
+    /**
+     * Lets the refresh policy know the stat is (or is no longer) being shown in the foreground so it can ramp refreshes down.
+     */
+    public void setBackground(boolean background) {
+        boolean wasBackground = this.background;
+
+        this.background = background;
+        refreshPolicy.setBackground(background);
+
+        // Back in the foreground; do not wait out a delay that was stretched for the background. The next refresh is due one foreground 
+        // interval after the last one (right away if that has passed).
+        if (wasBackground && !background && (getState == SyncState.PENDING_REQUEST)) {
+            long now = SystemClock.uptimeMillis();
+            long due = (lastReadAt < 0) ? now : lastReadAt + refreshPolicy.nextDelay(now);
+            startDataRefresh(Math.max(0, due - now));
         }
-    };
+    }
 
     // -------------------------------------------------------------------------------------
     // Get (Refresh) functionality
@@ -655,21 +906,111 @@ public class VirtualStat {
         }
 
         getState = SyncState.PENDING_REQUEST;
-        refreshHandler.removeCallbacks(refreshDataTask);
-        refreshHandler.postDelayed(refreshDataTask, delayMs);
+        App.getConnectivityMonitor().addListener(connectivityListener);
+
+        // While the breaker is open the server is not polled at all; the refresh resumes when the breaker closes.
+        CircuitBreaker breaker = App.getCircuitBreaker();
+        if (!breaker.isClosed()) {
+            breaker.addListener(circuitListener);
+            return;
+        }
+
+        // Refreshes are batched with any other stats that are due via the application wide poll scheduler.
+        App.getPollScheduler().schedule(pollSubscriber, delayMs);
+    }
+
+    /**
+     * @return True while refreshes are scheduled (or a request is out), or while a write is pending; the refresh resumes by itself once 
+     * the write is done.
+     */
+    public boolean isDataRefreshRunning() {
+        return (getState == SyncState.PENDING_REQUEST) || (getState == SyncState.REQUEST_SENT) || (putState != SyncState.IDLE);
     }
 
     public void stopDataRefresh() {
         getState = SyncState.IDLE;
-        refreshHandler.removeCallbacks(refreshDataTask);
+        App.getCircuitBreaker().removeListener(circuitListener);
+        App.getConnectivityMonitor().removeListener(connectivityListener);
+        retryHandler.removeCallbacks(replayWrites);
+        App.getPollScheduler().cancel(pollSubscriber);
+        if (writeVerifier != null) {
+            writeVerifier.cancel();
+        }
+    }
+
+    private CircuitBreaker.Listener circuitListener = new CircuitBreaker.Listener() {
+        @Override
+        public void onCircuitClosed() {
+            // Spread the stats out so they do not all hit the server the moment it is back.
+            if (getState == SyncState.PENDING_REQUEST) {
+                startDataRefresh(RetryPolicy.jitter(CircuitResumeSpread));
+            }
+        }
+    };
+
+    private ConnectivityMonitor.Listener connectivityListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void onReconnected() {
+            // The network is back and the session is valid; stop backing off and catch up right away. Every stat does this at once so 
+            // the poll scheduler folds the catch-up into a single getMulti (which also replays any offline writes).
+            readRetry.onSuccess();
+            writeRetry.onSuccess();
+            App.getCircuitBreaker().removeListener(circuitListener);
+            App.getCircuitBreaker().onSuccess();
+            startDataRefresh(0);
+        }
+    };
+
+    private Runnable replayWrites = new Runnable() {
+        @Override
+        public void run() {
+            App.getOfflineWriteQueue().replay();
+        }
+    };
+
+    /**
+     * @return A request for a single reference; used by the circuit breaker to probe the server.
+     */
+    private BACnetObjectValueList getProbeRequest() {
+        BACnetObjectValueList probe = new BACnetObjectValueList();
+
+        synchronized (modelLock) {
+            ensureIndex();
+            Iterator<String> keys = readRequest.keySet().iterator();
+            if (keys.hasNext()) {
+                String key = keys.next();
+                probe.put(key, readRequest.get(key));
+            }
+        }
+        return probe;
     }
 
-    private GenericCallback<BACnetObjectValueList> getPropertyListener = new GenericCallback<BACnetObjectValueList>() {
+    private PollScheduler.Subscriber pollSubscriber = new PollScheduler.Subscriber() {
+        @Override
+        public BACnetObjectValueList onPoll() {
+            synchronized (modelLock) {
+                ensureIndex();
+                BACnetObjectValueList refs = readRequest; // Get all
+                if (refs.size() > 0) {
+                    getState = SyncState.REQUEST_SENT;
+
+                    // Remember each point's write generation so values made stale by a put sent while the read is out can be skipped.
+                    for (VirtualStatPoint point : indexedPoints) {
+                        point.markReadIssued();
+                    }
+                }
+                return refs;
+            }
+        }
+
         @Override
-        public void onCallback(BACnetObjectValueList result) {
+        public void onPollResult(BACnetObjectValueList result) {
 
+            // If the refresh was stopped (or restarted) while the request was out, do not schedule another refresh from here.
+            boolean continueRefresh = (getState == SyncState.REQUEST_SENT);
             getState = SyncState.REQUEST_RECIEVED;
-            Long nextRefresh = refreshTimeout; // Set refresh to the default timeout, may change depending on state of response
+            long now = SystemClock.uptimeMillis();
+            lastReadAt = now;
             String resultStatus = "OK";
 
             try {            	
@@ -698,67 +1039,45 @@ public class VirtualStat {
                         }
                     }// switch(result.statusCode)
 
-                    if (backgroundFetchRetry > 0) {
-                        backgroundFetchRetry--;
-                        // Call listener functions
-                        if (syncListener != null) {
-                            syncListener.onStatusUpdate(resultStatus);
+                    refreshPolicy.onError(now);
+                    App.getSyncMetrics().readFailures.incrementAndGet();
+
+                    // Call listener functions
+                    if (syncListener != null) {
+                        syncListener.onStatusUpdate(resultStatus);
+                    }
+                    continueRefresh = continueRefresh && (getState == SyncState.REQUEST_RECIEVED); // Listener may have stopped the refresh
+
+                    long retryDelay = readRetry.onFailure();
+                    if (retryDelay >= 0) {
+                        App.getSyncMetrics().retries.incrementAndGet();
+                        if (continueRefresh) {
+                            startDataRefresh(retryDelay);
                         }
-                    } else {
-                        // Stop retry and initialize back to 3 for next time
-                        backgroundFetchRetry = MaxBackgroundFetchRetry;
-                        // Call listener functions
-                        if (syncListener != null) {
-                            syncListener.onStatusUpdate(resultStatus);
+                    }
+                    else {
+                        readRetry.onSuccess(); // Full budget again once the refresh resumes
+
+                        // Connection issue; stop hitting the server until a probe gets through. Any other error will not go away by 
+                        // retrying; stop background data fetch (restarted by the user).
+                        if (result.statusCode != 401 && result.statusCode != 403 && result.statusCode != 407) {
+                            App.getCircuitBreaker().trip(getProbeRequest());
+                            if (continueRefresh) {
+                                getState = SyncState.IDLE;
+                                startDataRefresh(0); // Waits for the breaker
+                            }
                         }
-                        // Stop background data fetch
-                        return;
                     }
+                    return;
 
                 } // if (result.statusCode != 200)
-                // Handle stale response (ie. if put request has gone out before this response has come back)
-                else if (ignoreNextGet) {
-                    ignoreNextGet = false;
-                    nextRefresh = 0l; // Start new refresh immediately
-                    backgroundFetchRetry = MaxBackgroundFetchRetry;
-                }
                 // Handle valid response, parse through point values to determine errors (if any)
                 // Should only get here if result contains actual values (although may be invalid points, so may contain QERRS)
                 else {
-                    ArrayList<VirtualStatPoint> points = getPoints(false);
-                    String value;
-                    String errorText = null;
-                    backgroundFetchRetry = MaxBackgroundFetchRetry;
-
-                    for (VirtualStatPoint point : points) {
-                        // Set value
-
-                        String ref = point.getFullRef();
-                        ref = ref.toLowerCase();
-                        if (result.containsKey(ref)) {
-                            value = result.get(ref).value;
-                            errorText = result.get(ref).errorText;
-                        }
-                        else {
-                            value = null;
-                        }
-
-                        if (errorText != null){
-                            Log.i(TAG, "errorText: " + errorText.toString());
-                        }
-
-                        if (value == null) {
-                            continue;
-                        } // If value null, then the response did not contain a value for the point.
-
-                        // Handle value error
-                        if (value.startsWith("QERR")) {
-                            resultStatus = value;
-                        }
-
-                        // Update even when value in error
-                        point.setValue(value, SetBy.SYSTEM);
-                    }
+                    readRetry.onSuccess();
+                    App.getCircuitBreaker().onSuccess();
+                    resultStatus = applyReadValues(result, now, false);
+                    App.getOfflineWriteQueue().replay(); // Connection is good, send any writes that were made while it was not
 
                     // Call listener functions
                     if (syncListener != null) {
@@ -771,142 +1090,314 @@ public class VirtualStat {
             }
 
             // Start next data refresh if desired
-            if (nextRefresh != null) {
-                startDataRefresh(nextRefresh);
+            if (continueRefresh) {
+                startDataRefresh(refreshPolicy.nextDelay(now));
             }
         }
     };
 
+    /**
+     * Applies the values in a read response to the points; values made stale by a put sent after the read was issued are skipped, 
+     * every other value is applied. Publishes a new snapshot if any value changed; a refresh that only repeats the current values does 
+     * not allocate.
+     * 
+     * @param result The read response (getMulti; lower case references)
+     * @param now Current uptime in ms
+     * @param verification True if the response is from a {@link WriteVerifier} read rather than a refresh.
+     * @return "OK", or the point error (QERR) if any point returned one.
+     */
+    String applyReadValues(BACnetObjectValueList result, long now, boolean verification) {
+        VirtualStatPoint point;
+        BACnetObjectValue objValue;
+        String value, lastKnownValue;
+        String errorText;
+        String resultStatus = "OK";
+        boolean changed = false;
+
+        synchronized (modelLock) {
+            ensureIndex();
+            for (int i = 0; i < indexedPoints.length; i++) {
+                // Set value
+                point = indexedPoints[i];
+                objValue = result.get(indexedKeys[i]);
+                value = (objValue != null) ? objValue.value : null;
+                errorText = (objValue != null) ? objValue.errorText : null;
+
+                if (errorText != null){
+                    Log.i(TAG, "errorText: " + errorText.toString());
+                }
+
+                if (value == null) {
+                    continue;
+                } // If value null, then the response did not contain a value for the point.
+
+                // Skip the point if a put for it went out after this read was issued (the value is stale); the rest of the response is still applied.
+                if (verification ? (point.getWriteGeneration() != verifyGenerations[i]) : point.isReadStale()) {
+                    App.getSyncMetrics().discardedValues.incrementAndGet();
+                    continue;
+                }
+
+                // Handle value error
+                if (value.startsWith("QERR")) {
+                    resultStatus = value;
+                }
+
+                // Update even when value in error
+                lastKnownValue = point.getOldValue();
+                point.setValue(value, SetBy.SYSTEM);
+                changed |= !value.equals(lastKnownValue);
+                if (!verification) {
+                    refreshPolicy.onPointValue(point.getFullRef(), !value.equals(lastKnownValue), now); // Verification reads would skew the change rate
+                }
+
+                App.getSyncMetrics().recordPointRefreshed(indexedKeys[i], now);
+                if ((confirmSentAt[i] >= 0) && value.equals(confirmValue[i])) {
+                    App.getSyncMetrics().sendToConfirm.record(now - confirmSentAt[i]);
+                    confirmSentAt[i] = -1;
+                }
+            }
+            if (changed) {
+                publishSnapshot();
+            }
+        }
+
+        return resultStatus;
+    }
+
     // -------------------------------------------------------------------------------------
     // Put Property Functionality
     // -------------------------------------------------------------------------------------
-    private void createSyncTimer() {
-        // Do not sync with eweb
-        putState = SyncState.PENDING_REQUEST;
-
-        syncTimer = new Timer();
-        syncTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                onSyncTimeout();
-            }
-        }, syncTimerDelay);
+    /**
+     * Remembers when the first unsent user change was made (for metrics).
+     */
+    private void markEdited() {
+        if (firstEditAt < 0) {
+            firstEditAt = SystemClock.uptimeMillis();
+        }
     }
 
     private void startSyncTimer() {
         stopDataRefresh(); // Stop any calls to refresh data (since the put should override the results long term)
 
-        if (syncTimer != null) {
-            syncTimer.cancel(); // Cancel old timer
-        }
-        createSyncTimer();
+        // Do not sync with eweb right away; the shared coalescer debounces rapid changes into a single put.
+        putState = SyncState.PENDING_REQUEST;
+        App.getWriteCoalescer().requestWrite(writeClient, syncTimerDelay);
     }
 
-    private void onSyncTimeout() {
-    	BACnetObjectValueList putObjectValueList;
-    	
-        EwebConnection eweb = App.getEwebConnection();
+    /**
+     * Hooks the stat into the application wide {@link WriteCoalescer}; collectWrites is called on the coalescer thread once the user 
+     * has stopped changing values for syncTimerDelay.
+     */
+    private WriteCoalescer.Client writeClient = new WriteCoalescer.Client() {
+        @Override
+        public BACnetObjectValueList collectWrites() {
+            BACnetObjectValueList putObjectValueList;
 
-        if (syncListener != null) {
-            syncListener.onDataUpdate();
+            if (syncListener != null) {
+                syncListener.onDataUpdate();
+            }
+
+            // If demo, do not do data refresh
+            if (App.getDemoMode()) {
+                putState = SyncState.IDLE; // Jump right to idle, we did not actually have to send.
+                firstEditAt = -1;
+                return null;
+            }
+
+            // Nothing to send (the common case for a stat the user is not touching); skip the eWEB call without taking the lock.
+            if (!dirty.any(ReadMask)) {
+                return nothingToSend();
+            }
+
+            // Send changes (dirty) to eWEB and then mark as non-dirty
+            synchronized (modelLock) {
+                putObjectValueList = buildWriteRequest();
+                if (!putObjectValueList.isEmpty()) {
+                    if (firstEditAt >= 0) {
+                        App.getSyncMetrics().editToSend.record(SystemClock.uptimeMillis() - firstEditAt);
+                        firstEditAt = -1;
+                    }
+
+                    putState = SyncState.REQUEST_SENT;
+                    markAllAsNonDirty(); // Publishes the snapshot
+                }
+            }
+
+            if (putObjectValueList.isEmpty()) {
+                return nothingToSend(); // Outside the lock; the poll scheduler calls onPoll (which takes the lock) holding its own lock.
+            }
+            lastWrite = putObjectValueList;
+            return putObjectValueList;
         }
 
-        // If demo, do not do data refresh
-        if (App.getDemoMode()) {
-            putState = SyncState.IDLE; // Jump right to idle, we did not actually have to send.
-            return;
+        /**
+         * No put is needed after all; startSyncTimer stopped the data refresh, so restart it at its normal cadence (as after a put).
+         */
+        private BACnetObjectValueList nothingToSend() {
+            putState = SyncState.IDLE;
+            firstEditAt = -1;
+            startDataRefresh(refreshPolicy.nextDelay(SystemClock.uptimeMillis()));
+            return null;
         }
 
-        putState = SyncState.REQUEST_SENT;
+        @Override
+        public void onWriteComplete(BACnetObjectValueList result) {
+            String resultStatus = "OK";
+            boolean queueable = false; // True if the write failed on the connection (and was queued)
+
+            Log.e(App.TAG,  "Put Multi");
+            putState = SyncState.REQUEST_RECIEVED;
 
-        try {
-            // Put data(
-            GenericCallback<BACnetObjectValueList> fetchListener = new GenericCallback<BACnetObjectValueList>() {
-                @Override
-                public void onCallback(BACnetObjectValueList result) {
-                	String resultStatus = "OK";
-                	
-                	Log.e(App.TAG,  "Put Multi");
-                    putState = SyncState.REQUEST_RECIEVED;                    
-                    
-                    // Handle errors in network response
-                    try {
-                    	Log.i("Tag", "Put Multi Status: " + result.statusCode);
-	                    if (result.statusCode != 200) {
-                            switch(result.statusCode){
-                                case 407: {
-                                    resultStatus = "Authentication issue"; // login issue
-                                    break;
-                                }
-
-                                case 401: {
-                                    resultStatus = "Unauthorized";  // User authentication failure
-                                    break;
-                                }
-
-                                case 403: {
-                                    resultStatus = "ForbiddenCall";  // Invalid request
-                                    break;
-                                }
-
-                                default: {
-                                    resultStatus = "HttpHostConnectException"; // network connection issue
-                                    break;
-                                }
-                            } // switch(result.statusCode)
-                            if (backgroundFetchRetry > 0) {
-                                backgroundFetchRetry--;
-                                // Call listener functions
-                                if (syncListener != null) {
-                                    syncListener.onStatusUpdate(resultStatus);
-                                }
-                            }
-                            else {
-                                // Stop retry and initialize back to 3 for next time
-                                backgroundFetchRetry = MaxBackgroundFetchRetry;
-                                // Call listener functions
-                                if (syncListener != null) {
-                                    syncListener.onStatusUpdate(resultStatus);
-                                }
-                                // Stop background data fetch
-                                return;
-                            }
+            // Handle errors in network response
+            try {
+                Log.i("Tag", "Put Multi Status: " + result.statusCode);
+                if (result.statusCode != 200) {
+                    switch(result.statusCode){
+                        case 407: {
+                            resultStatus = "Authentication issue"; // login issue
+                            break;
+                        }
+
+                        case 401: {
+                            resultStatus = "Unauthorized";  // User authentication failure
+                            break;
+                        }
+
+                        case 403: {
+                            resultStatus = "ForbiddenCall";  // Invalid request
+                            break;
+                        }
+
+                        default: {
+                            resultStatus = "WriteQueued"; // network connection issue; the change is pending, not lost
+                            queueOfflineWrite(lastWrite); // Keep the change so it can be replayed once the connection is back
+                            queueable = true;
+                            break;
+                        }
+                    } // switch(result.statusCode)
+                    App.getSyncMetrics().writeFailures.incrementAndGet();
 
-	                    } // if (result.statusCode != 200)
-	                    else {
-	                        showResponseFeedback(result);
-	                    }
+                    // Call listener functions
+                    if (syncListener != null) {
+                        syncListener.onStatusUpdate(resultStatus);
                     }
-                    catch (Exception e) {
-                    	Log.i(TAG, "Exception: " + e.getMessage());
+
+                    // The failed write is in the offline queue; retry it from there with backoff. Once the write budget is used up the 
+                    // queue is replayed by the next successful refresh instead.
+                    if (queueable) {
+                        long retryDelay = writeRetry.onFailure();
+                        if (retryDelay >= 0) {
+                            App.getSyncMetrics().retries.incrementAndGet();
+                            retryHandler.removeCallbacks(replayWrites);
+                            retryHandler.postDelayed(replayWrites, retryDelay);
+                        }
+                        else {
+                            writeRetry.onSuccess();
+                            App.getCircuitBreaker().trip(getProbeRequest());
+                        }
                     }
-                                        
-                    // Restart the data refresh.
-                    startDataRefresh(10000); // Need to give time for the value to update (especially if dealing with change to auto).
-                    putState = SyncState.IDLE;
-                }
-            };
 
-            // We are in the middle of getting data from eWEB, but we are about to send in a putProperty. This means we want to ignore
-            // the next get result as it will contain stale data.
-            if (getState == SyncState.REQUEST_SENT) {
-                ignoreNextGet = true;
+                } // if (result.statusCode != 200)
+                else {
+                    writeRetry.onSuccess();
+                    App.getCircuitBreaker().onSuccess();
+                    refreshPolicy.onWrite(SystemClock.uptimeMillis());
+                    showResponseFeedback(result);
+                    supersedeOfflineWrites(lastWrite);
+                    verifyWrite(lastWrite);
+                }
+            }
+            catch (Exception e) {
+                Log.i(TAG, "Exception: " + e.getMessage());
             }
 
-            // Send changes (dirty) to eWEB and then mark as non-dirty
-            putObjectValueList = this.toBACnetObjectValueList(true);
-            if (!putObjectValueList.isEmpty())
-            {
-	            eweb.putMulti(this.toBACnetObjectValueList(true), fetchListener);
-	            this.markAllAsNonDirty();
+            // Restart the data refresh at its normal cadence; the write itself is confirmed by the verifier.
+            startDataRefresh(refreshPolicy.nextDelay(SystemClock.uptimeMillis()));
+            putState = SyncState.IDLE;
+        }
+    };
+
+    // -------------------------------------------------------------------------------------
+    // Offline writes
+    // -------------------------------------------------------------------------------------
+    /**
+     * Drops any queued offline write to the references just written successfully; the direct put is newer and must not be overwritten 
+     * by a later replay.
+     */
+    private void supersedeOfflineWrites(BACnetObjectValueList written) {
+        if (written == null) {
+            return;
+        }
+
+        OfflineWriteQueue queue = App.getOfflineWriteQueue();
+        for (String ref : written.keySet()) {
+            queue.supersede(ref);
+        }
+    }
+
+    /**
+     * Queues a put that failed because of the connection in the application wide {@link OfflineWriteQueue}; each write records the last 
+     * value known from the server so the replay can detect conflicting changes.
+     */
+    private void queueOfflineWrite(BACnetObjectValueList written) {
+        if (written == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        OfflineWriteQueue queue = App.getOfflineWriteQueue();
+
+        synchronized (modelLock) {
+            ensureIndex();
+            for (int i = 0; i < indexedPoints.length; i++) {
+                VirtualStatPoint point = indexedPoints[i];
+                BACnetObjectValue obj = written.get(point.getFullRef());
+                if (obj != null) {
+                    // Without a known server value there is nothing to check conflicts against.
+                    String baseValue = point.getTypedOldValue().isInitialized() ? point.getOldValue() : null;
+                    queue.enqueue(new OfflineWriteQueue.Entry(point.getFullRef(), obj.value, baseValue, obj.dataType, now));
+                }
             }
+        }
+    }
 
-        } catch (Exception e) {
-            Log.v(TAG, e.getMessage());
+    // -------------------------------------------------------------------------------------
+    // Post-write verification
+    // -------------------------------------------------------------------------------------
+    /**
+     * Re-reads only the references that were just written (see {@link WriteVerifier}) so the user sees the confirmed value well before 
+     * the next full refresh.
+     */
+    private void verifyWrite(BACnetObjectValueList written) {
+        if ((written == null) || App.getDemoMode()) {
+            return;
         }
 
+        if (writeVerifier == null) {
+            writeVerifier = new WriteVerifier(verifyClient);
+        }
+        writeVerifier.start(written);
     }
 
+    private WriteVerifier.Client verifyClient = new WriteVerifier.Client() {
+        @Override
+        public void onVerifyResult(BACnetObjectValueList result) {
+            String resultStatus = applyReadValues(result, SystemClock.uptimeMillis(), true);
+
+            if (syncListener != null) {
+                syncListener.onStatusUpdate(resultStatus);
+                syncListener.onDataUpdate();
+            }
+        }
+
+        @Override
+        public void onVerifyComplete(boolean converged) {
+            if (!converged) {
+                Log.i(TAG, "Write not confirmed by verification; relying on refresh");
+            }
+        }
+    };
+
     /**
      * Helper function which takes an text node and returns its text value.
      * 
@@ -940,9 +1431,7 @@ public class VirtualStat {
         String responseStatus = "OK";
         boolean returnData = true;
         String ref;
-
-        // Points should index into the BACnetObjectValueList map.
-        ArrayList<VirtualStatPoint> points = this.getPoints(false);
+        BACnetObjectValue objValue;
 
         if (result.errorText != null) {
             // Network error may have occurred.
@@ -951,17 +1440,21 @@ public class VirtualStat {
         }
         else {
             // Handle valid response
-            for (int i = 0; i < points.size(); i++) {
-                ref = points.get(i).getFullRef();
+            synchronized (modelLock) {
+                // Points should index into the BACnetObjectValueList map.
+                ensureIndex();
+                for (int i = 0; i < indexedPoints.length; i++) {
+                    ref = indexedPoints[i].getFullRef();
+                    objValue = result.get(ref);
 
-                if (result.containsKey(ref)) {
                     // If error found with point, then restore to the old value assuming the user
                     // has not made another (unsynched) change.
-                    if (result.get(ref).errorText != null) {
-                        responseStatus = result.get(ref).errorText;
-                        points.get(i).restoreOldValueIfNotDirty();
+                    if ((objValue != null) && (objValue.errorText != null)) {
+                        responseStatus = objValue.errorText;
+                        indexedPoints[i].restoreOldValueIfNotDirty();
                     }
                 }
+                publishSnapshot();
             }
         }
 
@@ -430,7 +430,7 @@ public class LoginActivity extends Activity {
                     // If current login != stored login, then we want to nuke the cached "last" stat and save this
                     // login as the new stored login
                     if (!storedLogin.equals(mLoginInfo)) {
-                        App.removeStatFromSharedPreferences();
+                        App.removeCurrentStat();
                     }
                     // reset the runnable to stop calling connect
                     stopReconnect();
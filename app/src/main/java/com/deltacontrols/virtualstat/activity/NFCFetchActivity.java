@@ -121,7 +121,7 @@ public class NFCFetchActivity extends Activity {
                 }
                 else {
                     // Save NFC data into prefs and then launch single stat
-                    App.saveStatIntoSharedPreferences(result.json.toString());
+                    App.saveCurrentStat(result.json.toString());
 
                     // Launch summary
                     Intent statintent = new Intent(App.getContext(), SummaryActivity.class);
@@ -32,7 +32,6 @@ POSSIBILITY OF SUCH DAMAGE.
 package com.deltacontrols.virtualstat.activity;
 
 import android.app.Activity;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.EditText;
@@ -41,6 +40,7 @@ import com.deltacontrols.virtualstat.App;
 import com.deltacontrols.virtualstat.R;
 import com.deltacontrols.virtualstat.UIFactory;
 import com.deltacontrols.virtualstat.VirtualStat;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
 
 /**
  * Activity controlling the settings view of a the currently loaded stat; it will list all points in the stat and is mostly for test purposes 
@@ -83,14 +83,13 @@ public class SettingsActivity extends Activity {
         mBlindsView = (EditText) findViewById(R.id.Blinds);
 
         // Get default loaded stat
-        SharedPreferences sharedPreferences = getSharedPreferences(App.SHARED_PREF_ID, MODE_PRIVATE);
         settingsStat = new VirtualStat();
 
-        // Load current stat from XML
+        // Load current stat
         try {
-            String jsonStr = sharedPreferences.getString(App.SHARED_PREF_CURRENT_STAT_JSON, "");
-            if (jsonStr != "") {
-                settingsStat.loadFromJSON(jsonStr);
+            StatDescriptor stat = App.getCurrentStat();
+            if (stat != null) {
+                settingsStat.loadFromDescriptor(stat);
             }
         } catch (Exception e) {
 
@@ -132,7 +131,7 @@ public class SettingsActivity extends Activity {
         settingsStat.Blinds.setFullRef(mBlindsView.getText().toString());
 
         // Save state by setting local preferences to current XML string.
-        App.saveStatIntoSharedPreferences(settingsStat.createSystemJSONString());
+        App.saveCurrentStat(settingsStat.createDescriptor());
 
         setResult(RESULT_OK);
         finish();
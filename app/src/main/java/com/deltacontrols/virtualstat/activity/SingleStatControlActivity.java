@@ -34,7 +34,6 @@ package com.deltacontrols.virtualstat.activity;
 
 import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -63,6 +62,7 @@ import com.deltacontrols.virtualstat.VirtualStat.UseVirtualStat;
 import com.deltacontrols.virtualstat.controls.AlertWindow;
 import com.deltacontrols.virtualstat.fragment.SingleStatControlTabs;
 import com.deltacontrols.virtualstat.nfc.NFCHelper;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
 
 /**
  * Activity controlling the view of a complete stat; it will consist of the tabs (showing relevant pieces of the stat) as well as a main content 
@@ -73,6 +73,7 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
 
     final int version = Integer.valueOf(Build.VERSION.SDK_INT);
     static final int SETTINGS_REQUEST = 1;
+    public static final String EXTRA_STAT = "stat"; // Optional; stat encoded with VirtualStat.toBytes() by the launching activity
 
     private VirtualStat currentStat = null;
     private NFCHelper mNFCHelper;
@@ -114,8 +115,8 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
                     }
                 });
 
-        // Load stat values BEFORE we load the fragments.
-        loadStat();
+        // Load stat values BEFORE we load the fragments; the handed over stat is only current on first launch (not when re-created).
+        loadStat((savedInstanceState == null) ? getIntent().getByteArrayExtra(EXTRA_STAT) : null);
 
         // Grab the instance of TabFragment that was included with the layout and have it launch the initial tab.
         // Note, use FrameLayout so that the fragment loads AFTER we have the stat setup (if Fragment set
@@ -161,7 +162,7 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
         // Called on 'back' or on NFC launch
         super.onNewIntent(intent);
         checkNFCLaunch(intent);
-        loadStat();
+        loadStat(intent.getByteArrayExtra(EXTRA_STAT));
     }
 
     private void checkNFCLaunch(Intent intent) {
@@ -184,10 +185,9 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
 
         mNFCHelper.enableForegroundDispatch();
 
-        // Start data refresh if required
-        if (!isDemoMode) {
-            currentStat.startDataRefresh(0);
-        }
+        // Start data refresh if required (not in demo mode); if the stat was handed over by the summary page its refresh is still running 
+        // and carries on.
+        App.getStatRepository().subscribe(currentStat, dataListener);
 
         // Load the desired tab
         if (launchTab == 0) {
@@ -204,17 +204,16 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
 
     public void onPause() {
         super.onPause();
-        currentStat.stopDataRefresh();
+        App.getStatRepository().unsubscribe(currentStat, dataListener); // Refresh is kept going for a while for the next screen
         mNFCHelper.disableForegroundDispatch();
 
-        // Save statStr in shared preferences so that it can be used by other activities in the future.
-        App.saveStatIntoSharedPreferences(currentStat.createSystemJSONString());
+        // Save stat so that it can be used by other activities in the future.
+        App.saveCurrentStat(currentStat.createDescriptor());
     }
 
     public void onDestroy() {
         super.onDestroy();
         this.isDestroyed = true;
-        this.currentStat.setDataSyncListener(null);
         this.currentStat = null;
     }
 
@@ -279,6 +278,9 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
         case R.id.logout:
             logoutAction();
             return true;
+        case R.id.syncMetrics:
+            startActivity(new Intent(this, SyncMetricsActivity.class));
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
@@ -317,13 +319,19 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
          */
         @Override
         public void onStatusUpdate(String msg) {
-            // If network error, we want to stop data refresh, disable content and show an alert message.
+            // If network error, disable content and show an alert message; the stat keeps retrying (with backoff) on its own and the
+            // alert is hidden by the next data update. Any other error stops the data refresh.
             if (msg.equals("HttpHostConnectException")) {
                 alertWindow.showAlert(getString(R.string.network_status_other), true);
-                currentStat.stopDataRefresh();
                 currentStat.restoreAllToLastKnownValue();
                 updateFragments();
             }
+            else if (msg.equals("WriteQueued")) {
+                // Write failed on the connection but is in the offline queue; keep showing the pending value, it is sent once the 
+                // connection is back.
+                alertWindow.showAlert(getString(R.string.network_status_write_queued), true);
+                updateFragments();
+            }
             else if (msg.equals("Authentication issue")) {
                 Log.e(App.TAG, "Authentication issue");
                 alertWindow.showAlert(getString(R.string.network_status_authentication_issue), true);
@@ -410,19 +418,26 @@ public class SingleStatControlActivity extends FragmentActivity implements Virtu
     // Methods
     // --------------------------------------------------------------------------------
     /**
-     * Uses shared preferences to load in the current stat; if any errors occur, load into demo mode.
+     * Loads in the current stat: uses the live stat if the launching activity is still showing it, otherwise loads the encoded stat handed 
+     * over by the launching activity if there is one, otherwise the stat store.
+     * 
+     * @param statBytes Stat encoded with {@link VirtualStat#toBytes()} ({@link #EXTRA_STAT}); may be null.
      */
-    private void loadStat() {
+    private void loadStat(byte[] statBytes) {
+        // Use the stat store to get 'current' selected stat.
+        StatDescriptor stat = App.getCurrentStat();
+
         if (currentStat == null) {
-            currentStat = new VirtualStat();
+            currentStat = App.getStatRepository().open((stat != null) ? stat.name : null);
         }
 
-        // Use shared preferences to get 'current' selected stat.
-        SharedPreferences sharedPreferences = getSharedPreferences(App.SHARED_PREF_ID, MODE_PRIVATE);
-        String jsonStr = sharedPreferences.getString(App.SHARED_PREF_CURRENT_STAT_JSON, "");
-
-        currentStat.setDataSyncListener(dataListener);
-        currentStat.loadFromJSON(jsonStr);
+        boolean loaded = (stat != null) && currentStat.isLoadedFrom(stat); // Live stat; already has current values
+        if (!loaded && (statBytes != null)) {
+            loaded = currentStat.loadFromBytes(statBytes);
+        }
+        if (!loaded && (stat != null)) {
+            currentStat.loadFromDescriptor(stat);
+        }
         statNameText.setText(currentStat.Name);
     }
 
@@ -35,7 +35,6 @@ package com.deltacontrols.virtualstat.activity;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
@@ -74,6 +73,7 @@ import com.deltacontrols.virtualstat.controls.ToggleBar.ToggleInteractionListene
 import com.deltacontrols.virtualstat.fragment.SingleStatSummaryFragment;
 import com.deltacontrols.virtualstat.fragment.StatListFragment;
 import com.deltacontrols.virtualstat.nfc.NFCHelper;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
 
 /**
  * Activity controlling the summary page; the summary page consists of both a list of virtual stats, as well as a summary 
@@ -109,10 +109,10 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
         // Attempt to read from NFC before loading the view since we may be launching a new intent right from here.
         mNFCHelper = new NFCHelper(getApplicationContext(), this);
 
-        // Create new VirtualStat
+        // Use the live stat if there is one (ie. the activity is re-created), so it keeps its values and refresh; otherwise a new VirtualStat.
         ctx = App.getContext();
-        currentStat = new VirtualStat();
-        currentStat.setDataSyncListener(dataListener);
+        StatDescriptor stat = App.getCurrentStat();
+        currentStat = App.getStatRepository().open((stat != null) ? stat.name : null);
 
         // Setup outlets
         mainPageViewGroup = (RelativeLayout) findViewById(R.id.mainPageViewGroup);
@@ -191,14 +191,16 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
         super.onResume();
         mNFCHelper.enableForegroundDispatch(); // Setup NFC dispatch
 
-        // Load data from shared prefs
+        // Load data from the stat store
         loadStat();
 
         if (!currentStat.Name.isEmpty()) {
             hideStatList();
             updateFragments();
-            currentStat.startDataRefresh(0);
         }
+
+        // Starts the data refresh, unless it is still running from the previous screen.
+        App.getStatRepository().subscribe(currentStat, dataListener);
     }
 
     public void onPause() {
@@ -206,10 +208,11 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
         mNFCHelper.disableForegroundDispatch();
 
         if (!currentStat.Name.isEmpty()) {
-            App.saveStatIntoSharedPreferences(currentStat.createSystemJSONString());
-            currentStat.stopDataRefresh();
+            App.saveCurrentStat(currentStat.createDescriptor());
         }
 
+        // The refresh is kept going for a while in case the next screen shows the same stat.
+        App.getStatRepository().unsubscribe(currentStat, dataListener);
     }
 
     public void onStop() {
@@ -218,7 +221,6 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
 
     public void onDestroy() {
         super.onDestroy();
-        this.currentStat.setDataSyncListener(null);
         this.currentStat = null;
     }
 
@@ -282,6 +284,9 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
         case R.id.logout:
             logoutAction();
             return true;
+        case R.id.syncMetrics:
+            startActivity(new Intent(this, SyncMetricsActivity.class));
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
@@ -352,18 +357,18 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
     }
 
     /**
-     * Attempt to load the stat by checking 1) for an NFC launch and then 2) from any JSON stored in shared preferences (cached from previous app usage).
+     * Attempt to load the stat from the stat store (cached from previous app usage, or picked by another activity); the stat is only 
+     * reloaded if it changed, otherwise the live values are kept.
      */
     private void loadStat() {
 
         hideStatusMessage();
 
-        SharedPreferences sharedPreferences = getSharedPreferences(App.SHARED_PREF_ID, MODE_PRIVATE);
-        String jsonStr = sharedPreferences.getString(App.SHARED_PREF_CURRENT_STAT_JSON, "");
+        StatDescriptor stat = App.getCurrentStat();
 
         try {
-            if (!jsonStr.isEmpty()) {
-                currentStat.loadFromJSON(jsonStr);
+            if ((stat != null) && !currentStat.isLoadedFrom(stat)) {
+                currentStat.loadFromDescriptor(stat);
                 currentStat.startDataRefresh(0);
             }
         } 
@@ -389,14 +394,21 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
     VirtualStat.DataSyncListener dataListener = new VirtualStat.DataSyncListener() {
         @Override
         public void onStatusUpdate(String msg) {
-            // If network error, we want to stop data refresh, disable content and show an alert message.
+            // If network error, disable content and show an alert message; the stat keeps retrying (with backoff) on its own and the
+            // alert is hidden by the next data update. Any other error stops the data refresh.
             if (msg.equals("HttpHostConnectException")) {
                 Log.e(App.TAG, "HttpHostConnectException");
                 alertWindow.showAlert(getString(R.string.network_status_other), true);
-                currentStat.stopDataRefresh();
                 currentStat.restoreAllToLastKnownValue();
                 updateFragments();
             }
+            else if (msg.equals("WriteQueued")) {
+                Log.e(App.TAG, "WriteQueued");
+                // Write failed on the connection but is in the offline queue; keep showing the pending value, it is sent once the 
+                // connection is back.
+                alertWindow.showAlert(getString(R.string.network_status_write_queued), true);
+                updateFragments();
+            }
             else if (msg.equals("Authentication issue")) {
                 Log.e(App.TAG, "Authentication issue");
                 alertWindow.showAlert(getString(R.string.network_status_authentication_issue), true);
@@ -437,8 +449,7 @@ public class SummaryActivity extends FragmentActivity implements VirtualStat.Exp
             alertWindow.hideAlert(true);
             updateFragments();
 
-            String json = currentStat.createSystemJSONString();
-            StatListFragment.StatListCache.set(currentStat.Name, json);
+            StatListFragment.StatListCache.set(currentStat.Name, StatDescriptor.fromSnapshot(currentStat.getSnapshot()));
         }
     };
 
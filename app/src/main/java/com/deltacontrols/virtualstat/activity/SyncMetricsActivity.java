@@ -0,0 +1,86 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * SyncMetricsActivity.java
+ */
+package com.deltacontrols.virtualstat.activity;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.R;
+
+/**
+ * Debug view of the application wide {@link com.deltacontrols.virtualstat.sync.SyncMetrics}; shows the plain text dump (which is also 
+ * written to the log on refresh so it can be collected from the field with logcat).
+ */
+public class SyncMetricsActivity extends Activity {
+
+    // UI references.
+    private TextView mMetricsView;
+
+    // --------------------------------------------------------------------------------
+    // Life cycle
+    // --------------------------------------------------------------------------------
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sync_metrics);
+
+        mMetricsView = (TextView) findViewById(R.id.syncMetricsText);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    private void showMetrics() {
+        String dump = App.getSyncMetrics().dump() + "\n" + App.getStatCache().dump();
+        mMetricsView.setText(dump);
+        Log.i(App.TAG, "Sync metrics:\n" + dump);
+    }
+
+    public void onRefreshClick(View view) {
+        showMetrics();
+    }
+
+    public void onResetClick(View view) {
+        App.getSyncMetrics().reset();
+        showMetrics();
+    }
+}
@@ -50,6 +50,7 @@ import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.controls.OnOffToggle;
 import com.deltacontrols.virtualstat.controls.SlidingWindow;
 import com.deltacontrols.virtualstat.controls.SlidingWindow.SlidingWindowViewListener;
+import com.deltacontrols.virtualstat.points.PointValue;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint.Type;
 
@@ -184,11 +185,12 @@ public class SingleStatControlBlinds extends Fragment implements VirtualStat.Use
     private int convertDelegateToDisplay() {
         int value;
 
-        try {
-            value = (int) roundUp(Double.parseDouble(virtualStatDelegate.Blinds.getValue()), 10);
+        PointValue blindsValue = virtualStatDelegate.Blinds.getTypedValue();
+        if (blindsValue.kind == PointValue.Kind.ANALOG) {
+            value = (int) roundUp(blindsValue.analog, 10);
             value = Math.max(0, value);
             value = Math.min(value, 100);
-        } catch (Exception e) {
+        } else {
             value = 0;
         }
 
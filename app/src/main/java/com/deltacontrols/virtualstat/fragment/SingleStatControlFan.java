@@ -53,8 +53,8 @@ import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.controls.SeekBarWithValue;
 import com.deltacontrols.virtualstat.controls.StackedStates;
 import com.deltacontrols.virtualstat.points.FanPoint;
+import com.deltacontrols.virtualstat.points.PointValue;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint;
-import com.deltacontrols.virtualstat.points.VirtualStatPoint.SetBy;
 
 /**
  * Fragment containing the fan point; uses virtualStatDelegate (from VirtualStat.UseVirtualStat.getStatDelegate) to interact with the current VirtalStat data points.
@@ -180,9 +180,8 @@ public class SingleStatControlFan extends Fragment implements VirtualStat.UseVir
                     }
 
                     // Note, we are not going through VirtualStat.setValue (because Fan does trickery for setting the manual state),
-                    // We need to force a put to the server.
-                    virtualStatDelegate.Fan.setManualState(isChecked, SetBy.USER);
-                    virtualStatDelegate.forcePut();
+                    // setFanManualState forces a put to the server.
+                    virtualStatDelegate.setFanManualState(isChecked);
                 }
             });
 
@@ -251,11 +250,8 @@ public class SingleStatControlFan extends Fragment implements VirtualStat.UseVir
     private int convertDelegateToDisplay() {
         int value;
 
-        try {
-            value = (int) Math.round(Double.parseDouble(virtualStatDelegate.Fan.getValue()));
-        } catch (Exception e) {
-            value = 0;
-        }
+        PointValue fanValue = virtualStatDelegate.Fan.getTypedValue();
+        value = (fanValue.kind == PointValue.Kind.ANALOG) ? (int) Math.round(fanValue.analog) : 0;
 
         return value;
     }
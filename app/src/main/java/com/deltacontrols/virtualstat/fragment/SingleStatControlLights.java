@@ -52,6 +52,7 @@ import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.controls.OnOffToggle;
 import com.deltacontrols.virtualstat.controls.SeekBarWithValue;
 import com.deltacontrols.virtualstat.points.LightsPoint;
+import com.deltacontrols.virtualstat.points.PointValue;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint;
 
 /**
@@ -216,11 +217,11 @@ public class SingleStatControlLights extends Fragment implements VirtualStat.Use
      * 
      * @return The value rounded up to the nearest integer
      */
-    private int convertValueToDisplay(String value) {
+    private int convertValueToDisplay(PointValue value) {
 
         int result;
-        try {
-            result = (int) Math.round(Double.parseDouble(value));
+        if (value.kind == PointValue.Kind.ANALOG) {
+            result = (int) Math.round(value.analog);
             if (result > 100) {
                 result = 100;
             }else {
@@ -229,7 +230,7 @@ public class SingleStatControlLights extends Fragment implements VirtualStat.Use
                 }
             }
 
-        } catch (Exception e) {
+        } else {
             result = 0;
         }
 
@@ -253,7 +254,7 @@ public class SingleStatControlLights extends Fragment implements VirtualStat.Use
             public void onValueChange(int value) {
                 // Analog value
                 String newValue = Integer.toString(value);
-                int oldValue = convertValueToDisplay(virtualStatDelegate.getLights(index).getValue());
+                int oldValue = convertValueToDisplay(virtualStatDelegate.getLights(index).getTypedValue());
 
                 if (oldValue != value) {
                     virtualStatDelegate.setValue(virtualStatDelegate.getLights(index), newValue);
@@ -318,7 +319,7 @@ public class SingleStatControlLights extends Fragment implements VirtualStat.Use
             inputClass = lightingInputs[i].getClass().getSimpleName();
             point = virtualStatDelegate.getLights(i);
             value = point.getValue();
-            isError = value.startsWith("QERR");
+            isError = point.getTypedValue().isError();
 
             if (!isError) {
                 disable = false;
@@ -329,11 +330,7 @@ public class SingleStatControlLights extends Fragment implements VirtualStat.Use
                     ((SeekBarWithValue) lightingInputs[i]).setError();
                 }
                 else {
-                    try {
-                        iValue = convertValueToDisplay(value); // Value *could* be decimal, round it to the nearest decimal.
-                    } catch (Exception e) {
-                        iValue = 0;
-                    }
+                    iValue = convertValueToDisplay(point.getTypedValue()); // Value *could* be decimal, round it to the nearest decimal.
 
                     // Setting the progress should trigger the value text to update.
                     ((SeekBarWithValue) lightingInputs[i]).setValue(iValue);
@@ -46,6 +46,7 @@ import android.widget.TextView;
 
 import com.deltacontrols.virtualstat.App;
 import com.deltacontrols.virtualstat.R;
+import com.deltacontrols.virtualstat.StatSnapshot;
 import com.deltacontrols.virtualstat.UIFactory;
 import com.deltacontrols.virtualstat.VirtualStat;
 import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
@@ -332,16 +333,18 @@ public class SingleStatControlTabs extends Fragment implements VirtualStat.UseVi
         if (virtualStatDelegate == null) {
             return;
         }
-        // When updating with delegate, always get the point again, in case the pointer to the object has changed.
+        // When updating with delegate, always get the latest snapshot, in case the points have changed; one snapshot is used so all tabs 
+        // show values from the same moment.
+        StatSnapshot stat = virtualStatDelegate.getSnapshot();
 
         String errorString = "??";
         String formattedValue = "";
 
         // TempSetpoint
         // If Temp is set, then show it; if not, then show the temperature (setpoint)
-        formattedValue = virtualStatDelegate.Temp.getValueFormatted();
+        formattedValue = stat.temp.valueFormatted;
         if (formattedValue.equals(VirtualStatPoint.NotInitializedString)) {
-            formattedValue = virtualStatDelegate.TempSetpoint.getValueFormatted();
+            formattedValue = stat.tempSetpoint.valueFormatted;
         }
         if (formattedValue.startsWith("QERR")) {
             formattedValue = errorString;
@@ -350,23 +353,21 @@ public class SingleStatControlTabs extends Fragment implements VirtualStat.UseVi
 
         // Lights
         // May have up to 4 inputs, if any one of these are ON, then the text should read On.
-        LightsPoint[] lights = new LightsPoint[] { virtualStatDelegate.getLights(0), virtualStatDelegate.getLights(1),
-                virtualStatDelegate.getLights(2), virtualStatDelegate.getLights(3) };
-        formattedValue = LightsPoint.getSummaryValueFormatted(getActivity(), lights);
+        formattedValue = LightsPoint.getSummaryValueFormatted(getActivity(), stat.getLightsValues());
         if (formattedValue.startsWith("QERR")) {
             formattedValue = errorString;
         }
         lightsValue.setText(formattedValue);
 
         // Fan
-        formattedValue = virtualStatDelegate.Fan.getValueFormatted();
+        formattedValue = stat.fan.valueFormatted;
         if (formattedValue.startsWith("QERR")) {
             formattedValue = errorString;
         }
         fanValue.setText(formattedValue);
 
         // Blinds
-        formattedValue = virtualStatDelegate.Blinds.getValueFormatted();
+        formattedValue = stat.blinds.valueFormatted;
         if (formattedValue.startsWith("QERR")) {
             formattedValue = errorString;
         }
@@ -31,9 +31,6 @@ POSSIBILITY OF SUCH DAMAGE.
  */
 package com.deltacontrols.virtualstat.fragment;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-
 import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -51,8 +48,8 @@ import com.deltacontrols.virtualstat.VirtualStat;
 import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.controls.RotatingImageView;
 import com.deltacontrols.virtualstat.controls.RotatingImageView.RotatingImageViewListener;
-import com.deltacontrols.virtualstat.points.VirtualStatPoint;
-import com.deltacontrols.virtualstat.points.VirtualStatPoint.SetBy;
+import com.deltacontrols.virtualstat.points.PointValue;
+import com.deltacontrols.virtualstat.points.ValueFormat;
 
 /**
  * Fragment containing the blinds point; uses virtualStatDelegate (from VirtualStat.UseVirtualStat.getStatDelegate) to 
@@ -152,16 +149,13 @@ public class SingleStatControlTemperature extends Fragment implements VirtualSta
             return null;
         }
 
-        try {
-            String value = virtualStatDelegate.TempSetpoint.getValue();            
-                        
-            // Convert to 1 decimal place            
-            Double dValue = Double.parseDouble(value);            
-            	
-            return convertDoubleToFormattedString(dValue);
-        } catch (Exception e) {
+        PointValue value = virtualStatDelegate.TempSetpoint.getTypedValue();
+        if (value.kind != PointValue.Kind.ANALOG) {
             return null;
         }
+
+        // Convert to 1 decimal place            
+        return convertDoubleToFormattedString(value.analog);
     }
 
     /**
@@ -195,8 +189,7 @@ public class SingleStatControlTemperature extends Fragment implements VirtualSta
         // Compare values as strings to avoid double rounding issues.
         String jogValueStr = convertDoubleToFormattedString(jogWheel.getValue());
         if (!value.equals(jogValueStr)) {
-            VirtualStatPoint point = virtualStatDelegate.TempSetpoint;
-            point.setValue(String.valueOf(value), SetBy.SYSTEM); // Update model to use expected format.
+            virtualStatDelegate.setSystemValue(virtualStatDelegate.TempSetpoint, value); // Update model to use expected format.
             jogWheel.setValue(Double.parseDouble(value));
             // No click here, sound applied when updating the text
         }
@@ -210,11 +203,7 @@ public class SingleStatControlTemperature extends Fragment implements VirtualSta
      * @return A string containing the value, formatted to one decimal place
      */
     private String convertDoubleToFormattedString(double value) {
-        DecimalFormatSymbols decimalFormatSymbols = new DecimalFormatSymbols();
-        decimalFormatSymbols.setDecimalSeparator('.');
-        DecimalFormat decimalFormat = new DecimalFormat("###0.0", decimalFormatSymbols);
-        String formattedValue = decimalFormat.format(value);
-        return formattedValue;
+        return ValueFormat.formatOneDecimal(value); // Shared formatter; called on every jog wheel tick
     }
 
     private void playClick() {
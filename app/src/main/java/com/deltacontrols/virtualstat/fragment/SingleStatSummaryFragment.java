@@ -46,12 +46,14 @@ import android.widget.TextView;
 
 import com.deltacontrols.virtualstat.App;
 import com.deltacontrols.virtualstat.R;
+import com.deltacontrols.virtualstat.StatSnapshot;
 import com.deltacontrols.virtualstat.UIFactory;
 import com.deltacontrols.virtualstat.VirtualStat;
 import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.activity.SingleStatControlActivity;
 import com.deltacontrols.virtualstat.points.LightsPoint;
 import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
 
 /**
  * Fragment containing the summary of all points for a stat; uses virtualStatDelegate (from VirtualStat.UseVirtualStat.getStatDelegate) 
@@ -201,19 +203,17 @@ public class SingleStatSummaryFragment extends Fragment implements VirtualStat.U
 
         return new OnClickListener() {
             @Override
-            public synchronized void onClick(View v) {
-                // Lock against the delegate to prevent multiple clicks from invoking the activity multiple times.
-                synchronized (virtualStatDelegate) {
-                    // Save statStr in shared preferences so that it can be used by other activities in the future.
-                    App.saveStatIntoSharedPreferences(virtualStatDelegate.createSystemJSONString());
-
-                    // Launch single stat activity
-                    Intent intent = new Intent(ctx, SingleStatControlActivity.class);
-                    Bundle params = new Bundle();
-                    params.putInt("loadTab", tabToLoad);
-                    intent.putExtras(params);
-                    startActivity(intent);
-                }
+            public void onClick(View v) {
+                // Save stat so that it can be used by other activities in the future; the snapshot is immutable so no locking is required.
+                App.saveCurrentStat(StatDescriptor.fromSnapshot(virtualStatDelegate.getSnapshot()));
+
+                // Launch single stat activity
+                Intent intent = new Intent(ctx, SingleStatControlActivity.class);
+                Bundle params = new Bundle();
+                params.putInt("loadTab", tabToLoad);
+                params.putByteArray(SingleStatControlActivity.EXTRA_STAT, virtualStatDelegate.toBytes()); // Full state, including unsent changes
+                intent.putExtras(params);
+                startActivity(intent);
             }
         };
     }
@@ -244,15 +244,15 @@ public class SingleStatSummaryFragment extends Fragment implements VirtualStat.U
             return;
         }
 
+        // Read from a single snapshot so all summary items show values from the same moment.
         Context ctx = getActivity();
-        LightsPoint[] lights = new LightsPoint[] { virtualStatDelegate.getLights(0), virtualStatDelegate.getLights(1),
-                virtualStatDelegate.getLights(2), virtualStatDelegate.getLights(3) };
-        String lightsValue = LightsPoint.getSummaryValueFormatted(ctx, lights);
-        String lightsRef = (LightsPoint.lightsDisabled(ctx, lights)) ? "" : "ref"; // Any string will indicate that we want to show the icon, use 'ref'.
-
-        tempSummary.updateTextViews(virtualStatDelegate.Temp.getFullRef(), virtualStatDelegate.Temp.getValueFormatted());         
-        fanSummary.updateTextViews(virtualStatDelegate.Fan.getFullRef(), virtualStatDelegate.Fan.getValueFormatted());
-        blindsSummary.updateTextViews(virtualStatDelegate.Blinds.getFullRef(), virtualStatDelegate.Blinds.getValueFormatted());
+        StatSnapshot stat = virtualStatDelegate.getSnapshot();
+        String lightsValue = LightsPoint.getSummaryValueFormatted(ctx, stat.getLightsValues());
+        String lightsRef = (stat.lightsDisabled()) ? "" : "ref"; // Any string will indicate that we want to show the icon, use 'ref'.
+
+        tempSummary.updateTextViews(stat.temp.ref, stat.temp.valueFormatted);
+        fanSummary.updateTextViews(stat.fan.ref, stat.fan.valueFormatted);
+        blindsSummary.updateTextViews(stat.blinds.ref, stat.blinds.valueFormatted);
         lightsSummary.updateTextViews(lightsRef, lightsValue);
     }
 }
@@ -35,8 +35,6 @@ package com.deltacontrols.virtualstat.fragment;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 
 import org.apache.http.HttpStatus;
 import org.json.JSONObject;
@@ -66,6 +64,7 @@ import com.deltacontrols.eweb.support.api.EwebConnection;
 import com.deltacontrols.eweb.support.api.FetchJSON;
 import com.deltacontrols.eweb.support.interfaces.GenericCallback;
 import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.LoginInfo;
 import com.deltacontrols.virtualstat.R;
 import com.deltacontrols.virtualstat.StatListItem;
 import com.deltacontrols.virtualstat.StatListItemAdapter;
@@ -75,6 +74,9 @@ import com.deltacontrols.virtualstat.VirtualStat.ExposeVirtualStat;
 import com.deltacontrols.virtualstat.activity.SummaryActivity;
 import com.deltacontrols.virtualstat.controls.ToggleBar;
 import com.deltacontrols.virtualstat.controls.ToggleBar.ToggleInteractionListener;
+import com.deltacontrols.virtualstat.store.CatalogStore;
+import com.deltacontrols.virtualstat.store.StatCatalogParser;
+import com.deltacontrols.virtualstat.store.StatDescriptor;
 
 /**
  * StatListFragment
@@ -88,22 +90,22 @@ public class StatListFragment extends Fragment implements VirtualStat.UseVirtual
     // Static helper classes
     // --------------------------------------------------------------------------------
     /**
-     * Caching class helper - cache Stat JSON strings to avoid extra requests. Made static so other activities can update the cached JSON to 
-     * include updated values
+     * Caching class helper - cache stat descriptors to avoid extra requests. Made static so other activities can update the cached stats to 
+     * include updated values. Backed by the application wide (bounded) {@link com.deltacontrols.virtualstat.store.StatCache}; a stat may be 
+     * evicted, in which case it is requested again when selected.
      */
     public static class StatListCache {
-        private static HashMap<String, String> cachedJSONStrs = new HashMap<String, String>();
 
-        public static String get(String statName) {
-            return cachedJSONStrs.containsKey(statName) ? cachedJSONStrs.get(statName) : null;
+        public static StatDescriptor get(String statName) {
+            return App.getStatCache().get(statName);
         }
 
         public static void clear() {
-            cachedJSONStrs.clear();
+            App.getStatCache().clear();
         }
 
-        public static void set(String statName, String json) {
-            cachedJSONStrs.put(statName, json);
+        public static void set(String statName, StatDescriptor stat) {
+            App.getStatCache().set(statName, stat);
         }
 
     }
@@ -210,6 +212,7 @@ public class StatListFragment extends Fragment implements VirtualStat.UseVirtual
     Filter statFilter;
     StatListItemAdapter listAdapter;
     ArrayList<StatListItem> listItemsArray = new ArrayList<StatListItem>();
+    StatDescriptor currentCatalogEntry = null; // Catalog entry the current stat was loaded from (or listed as); used to skip needless reloads
 
     // Outlets
     EditText searchText;
@@ -335,7 +338,7 @@ public class StatListFragment extends Fragment implements VirtualStat.UseVirtual
         super.onResume();
 
         if (listItemsArray.isEmpty()) {
-            updateList(); // Do an initial update of the list; all subsequent updates must be triggered through the refresh button
+            loadStoredCatalog(); // Do an initial update of the list; all subsequent updates must be triggered through the refresh button
         }
         else {
             setListAdapter(); // If coming back from a long period away, reset the list.
@@ -346,124 +349,169 @@ public class StatListFragment extends Fragment implements VirtualStat.UseVirtual
     // Methods
     // --------------------------------------------------------------------------------
     /**
-     * Listener used to handle the result of a request for the stat list. Loads the stat list with a given JSONObject containing a list of 
-     * systems (from either eWEB or with demo data)
+     * Listener used to handle the result of a request for the stat list. Hands the views response (from either eWEB or with demo data) to the 
+     * {@link StatCatalogParser}, which parses it off the main thread; see {@link #catalogListener}.
      */
     private GenericCallback<FetchJSON.Result> getListListener = new GenericCallback<FetchJSON.Result>() {
-        @SuppressWarnings("unchecked")
         @Override
         public void onCallback(FetchJSON.Result result) {
-            try {
-                String name,jsonStr, itemName;
-                Object value, itemValue;
-                StatListItem singleListItem;
-                JSONObject valueObj, itemObj;
-                
-                String statSys;
-                Object statValue;
-                JSONObject statSysObj;
-                Iterator<String> statIter, iter, item;
-                
+            String catalogJSON = getCatalogJSON(result);
+
+            if (catalogJSON == null) {
+                Log.e(App.TAG, "Error in getListListener: no stat list (" + result.statusCode + ")");
                 showLoadingIcon(false);
-                listItemsArray.clear();
+                return;
+            }
+            StatCatalogParser.parseAsync(catalogJSON, catalogListener);
+        }
+    };
 
+    /**
+     * @return The views response to parse, or null if the request failed.
+     */
+    private static String getCatalogJSON(FetchJSON.Result result) {
+        if (!result.success) {
+            return null;
+        }
+        // Stream the raw response if we have it; the demo data only exists as a JSONObject.
+        return (result.rawResponse != null) ? result.rawResponse : (result.json != null) ? result.json.toString() : null;
+    }
 
-                /*
-                {                	
-                	Room 200: {...}-
-                	Room100: {...}-
-                }
-                */
-
-            	StatListCache.clear(); // Clear cache so list is always up to date with current request.          	            
-                
-                // Iterate over views result to get each stat's objects and values.                
-                iter = result.json.keys();
-                // Check if Stat list is empty
-                if (iter.hasNext() == false){                	
-                	App.removeStatFromSharedPreferences();
-                	virtualStatDelegate.init();
-                	jsonStr = virtualStatDelegate.createSystemJSONString();
-                	virtualStatDelegate.loadFromJSON(jsonStr);
-                	listAdapter = null;                	
+    /**
+     * Loads the stat list with the parsed stat catalog and stores it for the next start up.
+     */
+    private StatCatalogParser.Listener catalogListener = new StatCatalogParser.Listener() {
+        @Override
+        public void onCatalogParsed(ArrayList<StatDescriptor> stats) {
+            if (getActivity() == null) {
+                return; // Fragment detached while parsing
+            }
+
+            showLoadingIcon(false);
+            if (stats == null) {
+                return; // Parse error, already logged; keep the current list.
+            }
+
+            LoginInfo login = LoginInfo.getStoredLogin();
+            if (!App.getDemoMode() && LoginInfo.isValid(login)) {
+                if (stats.isEmpty()) {
+                    App.getCatalogStore().deleteAsync(login.eWebURL, login.userName);
                 }
                 else {
-                    while(iter.hasNext()){
-                    	//Top level key
-                        name = iter.next();
-                        value = result.json.get(name);
-                        valueObj = (JSONObject) value;
-                        
-                        /*
-                         * Room100: {
-    					 *	$base: "Collection"
-    					 *	Room100: {...}-
-    					 *	Default System Dashboard: {...}-
-    					 *  }
-                         */
-                        item = valueObj.keys();
-                        while(item.hasNext()) {
-                        	itemName = item.next();
-                            // Only interested in the individual view
-                            if (!itemName.contains("$base") && !itemName.contains("Default System Dashboard")){
-                            	
-                                itemValue = valueObj.get(itemName);
-                                itemObj = (JSONObject)itemValue;
-                                statIter = itemObj.keys();
-                                while(statIter.hasNext()){
-                                	statSys = statIter.next();
-                                	if (statSys.contains("Objects")){
-                                		statValue = itemObj.getString(statSys);
-                                    	singleListItem = new StatListItem(name);
-                                    	listItemsArray.add(singleListItem);
-                                        // Since current web response contains full views info, add to cache to avoid a second request.
-                                        // Cache json string, including name so that we can easily parse it out later.                        
-                                        jsonStr = "{ \"" + name + "\" :" + statValue.toString() + "}";
-    									StatListCache.cachedJSONStrs.put(name, jsonStr);
-                                        break;
-                                	}
-                                }                    	
-                            }
-                        	
-                        }
-                                                                                  
-                    } // while(iter.hasNext()){                
-                } // List not empty
-                	
-                	                	
-                // Sort list alphabetically by name
-                Collections.sort(listItemsArray, new Comparator<StatListItem>() {
-                    public int compare(StatListItem o1, StatListItem o2) {
-                        return o1.name.toLowerCase().compareTo(o2.name.toLowerCase());
-                    }
-                });
+                    App.getCatalogStore().saveAsync(login.eWebURL, login.userName, stats);
+                }
+            }
 
-                setListAdapter();                
-                
-                // If nothing selected, default to show first.
-                if (virtualStatDelegate.Name.isEmpty()) {
-                    loadFirstItemInList();
+            applyCatalog(stats, true);
+        }
+    };
+
+    /**
+     * Shows the catalog stored on the last run (if any) right away, then requests the current catalog from eWEB (stale-while-revalidate).
+     */
+    private void loadStoredCatalog() {
+        LoginInfo login = LoginInfo.getStoredLogin();
+
+        if (App.getDemoMode() || !LoginInfo.isValid(login)) {
+            updateList();
+            return;
+        }
+
+        App.getCatalogStore().loadAsync(login.eWebURL, login.userName, new CatalogStore.Listener() {
+            @Override
+            public void onCatalogLoaded(ArrayList<StatDescriptor> stats) {
+                if (getActivity() == null) {
+                    return; // Fragment detached while loading
                 }
-                else{                	
-                	String currentStat = StatListCache.get(virtualStatDelegate.Name);
-                	// Check if currentStat still exist in stat list
-                	if (currentStat == null){
-                		// load first stat on the list
-                		loadFirstItemInList();
-                	}
-                	else {
-                		loadStatJSON(virtualStatDelegate.Name);
-                	}
-                		
+
+                if ((stats != null) && !stats.isEmpty() && listItemsArray.isEmpty()) {
+                    applyCatalog(stats, false);
                 }
-                               
+                updateList();
+            }
+        });
+    }
 
+    /**
+     * Loads the stat list with a stat catalog, caching every stat so that selecting it does not require another request. Only what changed 
+     * is applied: the list is only reset if the stats in it changed, and the current stat is only reloaded if its points changed.
+     * 
+     * @param stats Stats in the catalog.
+     * @param revalidated True if the catalog is the current one from eWEB; false if it is the (possibly stale) stored catalog.
+     */
+    private void applyCatalog(ArrayList<StatDescriptor> stats, boolean revalidated) {
+        try {
+            ArrayList<StatListItem> items = new ArrayList<StatListItem>(stats.size());
+            StatDescriptor currentEntry = null;
+
+            StatListCache.clear(); // Clear cache so list is always up to date with current request.
+
+            // Check if Stat list is empty
+            if (stats.isEmpty()) {
+                App.removeCurrentStat();
+                virtualStatDelegate.init();
+                virtualStatDelegate.loadFromDescriptor(virtualStatDelegate.createDescriptor());
+                listAdapter = null;
+                currentCatalogEntry = null;
+            }
+            else {
+                for (StatDescriptor stat : stats) {
+                    items.add(new StatListItem(stat.name));
+                    // Since current web response contains full views info, add to cache to avoid a second request.
+                    StatListCache.set(stat.name, stat);
+                    if (stat.name.equals(virtualStatDelegate.Name)) {
+                        currentEntry = stat;
+                    }
+                }
             }
-            catch (Exception e) {
-                Log.e(App.TAG, "Error in getListListener: " + e.getMessage());
+
+            // Sort list alphabetically by name
+            Collections.sort(items, new Comparator<StatListItem>() {
+                public int compare(StatListItem o1, StatListItem o2) {
+                    return o1.name.toLowerCase().compareTo(o2.name.toLowerCase());
+                }
+            });
+
+            if ((listAdapter == null) || !sameNames(items, listItemsArray)) {
+                listItemsArray = items;
+                setListAdapter();
+            }
+
+            // If nothing selected, default to show first.
+            if (virtualStatDelegate.Name.isEmpty()) {
+                loadFirstItemInList();
+            }
+            // Check if current stat still exist in stat list
+            else if (currentEntry == null) {
+                // load first stat on the list; the stored catalog may be out of date, so wait for the current one.
+                if (revalidated) {
+                    loadFirstItemInList();
+                }
+            }
+            // The stored catalog is only used for the list; the current stat is already shown.
+            else if (!revalidated) {
+                currentCatalogEntry = currentEntry;
+            }
+            else if (!currentEntry.sameStructure(currentCatalogEntry)) {
+                loadStatJSON(virtualStatDelegate.Name);
             }
         }
-    };
+        catch (Exception e) {
+            Log.e(App.TAG, "Error in getListListener: " + e.getMessage());
+        }
+    }
+
+    private static boolean sameNames(ArrayList<StatListItem> a, ArrayList<StatListItem> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).name.equals(b.get(i).name)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**
      * Update the stat list with live or demo data depending on the connection to eWEB.
@@ -547,26 +595,82 @@ public class StatListFragment extends Fragment implements VirtualStat.UseVirtual
     }
     
     /**
-     * loadStatJSON Given an id, lookup the stat's JSON String in cache, and load it into the virtual stat delegate.
+     * loadStatJSON Given a name, lookup the stat's descriptor in cache, and load it into the virtual stat delegate.
      * 
-     * @param id The ID of the stat to load
+     * @param name The name of the stat to load
      */
     private void loadStatJSON(String name) {
-        try {
-            String statStr = StatListCache.get(name);
+        StatDescriptor stat = StatListCache.get(name);
 
-            
-            if (statStr == null) {
-                loadFirstItemInList();
-                return;
-             // If no cache, return, cannot load.
+        if (stat == null) {
+            // Evicted from the cache; request it again.
+            fetchStat(name);
+            return;
+        }
+        loadStat(stat);
+    }
+
+    /**
+     * Requests a single stat from eWEB (or the demo data), caches it and loads it into the virtual stat delegate.
+     * 
+     * @param name The name of the stat to load
+     */
+    private void fetchStat(final String name) {
+        final StatCatalogParser.Listener parsedListener = new StatCatalogParser.Listener() {
+            @Override
+            public void onCatalogParsed(ArrayList<StatDescriptor> stats) {
+                if (getActivity() == null) {
+                    return; // Fragment detached while parsing
+                }
+
+                showLoadingIcon(false);
+                if (stats != null) {
+                    for (StatDescriptor stat : stats) {
+                        if (stat.name.equals(name)) {
+                            StatListCache.set(name, stat);
+                            loadStat(stat);
+                            return;
+                        }
+                    }
+                }
+                UIFactory.deltaToast(getActivity(), getString(R.string.error_loading_json), null);
+            }
+        };
+
+        GenericCallback<FetchJSON.Result> statListener = new GenericCallback<FetchJSON.Result>() {
+            @Override
+            public void onCallback(FetchJSON.Result result) {
+                String catalogJSON = getCatalogJSON(result);
+
+                if (catalogJSON == null) {
+                    parsedListener.onCatalogParsed(null);
+                    return;
+                }
+                StatCatalogParser.parseAsync(catalogJSON, parsedListener);
             }
-                        
-            // Save statStr in shared preferences so that it can be used by other activities in the future.
-            App.saveStatIntoSharedPreferences(statStr);
+        };
+
+        if (App.getDemoMode()) {
+            statListener.onCallback(Demo.getAllStats());
+        }
+        else if (App.getEwebConnection().isConnected()) {
+            showLoadingIcon(true);
+            App.getStat(name, statListener);
+        }
+    }
+
+    /**
+     * Saves the stat (for use by other activities) and loads it into the virtual stat delegate.
+     */
+    private void loadStat(StatDescriptor stat) {
+        try {
+            currentCatalogEntry = stat;
+
+            // Save stat so that it can be used by other activities in the future.
+            App.saveCurrentStat(stat);
 
-            // Load stat with new statStr and start the data refresh.
-            virtualStatDelegate.loadFromJSON(statStr);
+            // Load stat with the cached descriptor and start the data refresh.
+            virtualStatDelegate.loadFromDescriptor(stat);
             virtualStatDelegate.startDataRefresh(0); // get data.
         } 
         catch (Exception e) {
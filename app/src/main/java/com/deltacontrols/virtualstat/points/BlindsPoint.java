@@ -53,24 +53,24 @@ public class BlindsPoint extends VirtualStatPoint {
     /*
      * Returns formatted blinds value Note: Not currently reading binary state values from eWEB; we use hardcoded values 
      * "Open|active" / "Closed|inactive" 
-     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#getValueFormatted()
+     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#formatValue()
      */
     @Override
-    public String getValueFormatted() {
+    protected String formatValue() {
 
         String result = mValue;
         String openString = "Open";
         String closedString = "Closed";
         String percentString = "%";
 
-        if (!mValue.startsWith("QERR")) {
+        if (!mTypedValue.isError()) {
             if (mType == Type.BINARY) {
-                result = (mValue.equals(VirtualStatPoint.ActiveString)) ? openString : closedString;
+                result = (mTypedValue.active) ? openString : closedString;
             }
             else if (mType == Type.ANALOG) {
-                try {
+                if (mTypedValue.kind == PointValue.Kind.ANALOG) {
                     // Round value to int
-                    int iVal = (int) Math.round(Double.parseDouble(mValue));
+                    int iVal = (int) Math.round(mTypedValue.analog);
                     // If value is not within 0-100%, we cap it.
                     if (iVal > 100) {
                         iVal = 100;
@@ -81,8 +81,6 @@ public class BlindsPoint extends VirtualStatPoint {
                     }
 
                     result = String.valueOf(iVal) + percentString;
-                } catch (Exception e) {
-                    result = mValue;
                 }
             }
             else {
@@ -0,0 +1,103 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * DirtySet.java
+ */
+package com.deltacontrols.virtualstat.points;
+
+/**
+ * Dirty flags for all points of a stat, one bit per point (bit = slot id, see {@link PointSchema}; at most 64 points). Points attached to 
+ * the set keep their dirty flag here instead of in the point, so the stat can tell whether anything is dirty with a single read, change 
+ * many flags with a single mask operation and visit only the dirty points.
+ */
+public final class DirtySet {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private volatile long mBits;
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * @return The dirty bits.
+     */
+    public long get() {
+        return mBits;
+    }
+
+    /**
+     * @return True if no point is dirty.
+     */
+    public boolean isEmpty() {
+        return mBits == 0;
+    }
+
+    /**
+     * @return True if any point in the mask is dirty.
+     */
+    public boolean any(long mask) {
+        return (mBits & mask) != 0;
+    }
+
+    public boolean isSet(int bit) {
+        return (mBits & (1L << bit)) != 0;
+    }
+
+    public synchronized void set(int bit, boolean dirty) {
+        if (dirty) {
+            mBits |= (1L << bit);
+        }
+        else {
+            mBits &= ~(1L << bit);
+        }
+    }
+
+    /**
+     * Marks every point in the mask as dirty.
+     */
+    public synchronized void setAll(long mask) {
+        mBits |= mask;
+    }
+
+    /**
+     * Marks every point in the mask as not dirty.
+     */
+    public synchronized void clearAll(long mask) {
+        mBits &= ~mask;
+    }
+
+    /**
+     * @return Bit mask with the given bit set.
+     */
+    public static long mask(int bit) {
+        return 1L << bit;
+    }
+}
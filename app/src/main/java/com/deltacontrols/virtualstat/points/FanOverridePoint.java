@@ -53,13 +53,13 @@ public class FanOverridePoint extends VirtualStatPoint {
      * Returns formatted fan override value
      */
     @Override
-    public String getValueFormatted() {
+    protected String formatValue() {
 
         String result = mValue;
 
-        if (!mValue.startsWith("QERR")) {
+        if (!mTypedValue.isError()) {
             if (mType == Type.MULTISTATE) {
-                result = mValue.equals("1") ? VirtualStatPoint.InactiveString : VirtualStatPoint.ActiveString; // State1 = Off = Auto
+                result = (mTypedValue.state == 1) ? VirtualStatPoint.InactiveString : VirtualStatPoint.ActiveString; // State1 = Off = Auto
             }
             else if (mType == Type.BINARY) {
                 // Do nothing, use raw value which should be VirtualStatPoint.InactiveString or VirtualStatPoint.ActiveString
@@ -39,6 +39,7 @@ import java.util.LinkedHashMap;
 public class FanPoint extends VirtualStatPoint {
 
     public FanOverridePoint override;
+    private PointValue mFormattedOverride; // Override value the fan was last formatted with (analog fans show auto from the override)
 
     // --------------------------------------------------------------------------------
     // State mappings
@@ -95,7 +96,7 @@ public class FanPoint extends VirtualStatPoint {
 
         if (mType == Type.MULTISTATE) {
             // If not state 1 and not in error, then manual
-            result = !(mValue.equals("1") || mValue.startsWith("QERR"));
+            result = !(((mTypedValue.kind == PointValue.Kind.MULTISTATE) && (mTypedValue.state == 1)) || mTypedValue.isError());
         }
         else if (mType == Type.ANALOG) {
             // If override not set (TODO error?) or override value is acitve, then manual.
@@ -125,27 +126,40 @@ public class FanPoint extends VirtualStatPoint {
             // Set override
             newValue = (set) ? VirtualStatPoint.ActiveString : VirtualStatPoint.InactiveString;
             override.setValue(newValue, setBy);
-            override.isDirty = true;
+            override.setDirty(true);
         }
     }
 
     // --------------------------------------------------------------------------------
     // Overridden methods
     // --------------------------------------------------------------------------------
+    /**
+     * The formatted value of an analog fan also depends on the override; format again if the override has changed.
+     */
+    @Override
+    public String getValueFormatted() {
+        PointValue overrideValue = (override != null) ? override.getTypedValue() : null;
+        if (overrideValue != mFormattedOverride) {
+            mFormattedOverride = overrideValue;
+            invalidateFormatted();
+        }
+        return super.getValueFormatted();
+    }
+
     /*
      * Returns formatted fan value Note: Not currently reading multistate values from eWEB; we use hardcoded values from 
      * {@link FanPoint.FanStateByValue} and {@link FanPoint.FanValueByState}
-     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#getValueFormatted()
+     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#formatValue()
      */
     @Override
-    public String getValueFormatted() {
+    protected String formatValue() {
 
         String result = mValue;
         String percentString = "%";
 
-        if (!mValue.startsWith("QERR")) {
+        if (!mTypedValue.isError()) {
             if (mType == Type.MULTISTATE) {
-                result = mValue.equals("1") ? AutoString : FanStateByValue.get(mValue); // State1 = auto
+                result = (mTypedValue.state == 1) ? AutoString : FanStateByValue.get(mValue); // State1 = auto
                 if (result == null) {
                     result = mValue;
                 }
@@ -155,14 +169,10 @@ public class FanPoint extends VirtualStatPoint {
                 if (override.getValueFormatted().equals(VirtualStatPoint.InactiveString)) {
                     result = AutoString;
                 }
-                else {
-                    try {
-                        // Round value to int
-                        int iVal = (int) Math.round(Double.parseDouble(mValue));
-                        result = String.valueOf(iVal) + percentString;
-                    } catch (Exception e) {
-                        result = mValue;
-                    }
+                else if (mTypedValue.kind == PointValue.Kind.ANALOG) {
+                    // Round value to int
+                    int iVal = (int) Math.round(mTypedValue.analog);
+                    result = String.valueOf(iVal) + percentString;
                 }
             }
             else {
@@ -95,41 +95,45 @@ public class LightsPoint extends VirtualStatPoint {
      * @return onString if any of the LightPoints are considered 'On' (ie. > 0 or 'Active'), else offString.
      */
     public static String getSummaryValueFormatted(Context ctx, LightsPoint[] lights) {
+        PointValue[] values = new PointValue[lights.length];
 
-        String result, value;
+        for (int i = 0; i < lights.length; i++) {
+            values[i] = lights[i].getTypedValue();
+        }
+        return getSummaryValueFormatted(ctx, values);
+    }
+
+    /**
+     * Same as {@link #getSummaryValueFormatted(Context, LightsPoint[])}, given the typed values of the lights (ie. from a 
+     * {@link com.deltacontrols.virtualstat.StatSnapshot}).
+     */
+    public static String getSummaryValueFormatted(Context ctx, PointValue[] lightsValues) {
+
+        String result;
+        PointValue value;
         String offString = ctx.getString(R.string.value_off);
         String onString = ctx.getString(R.string.value_on);
         int numErrors = 0;
 
         result = offString;
-        for (int i = 0; i < lights.length; i++) {
-            value = lights[i].getValue();
+        for (int i = 0; i < lightsValues.length; i++) {
+            value = lightsValues[i];
 
             // If not initialized or QERR, then count as error and skip.
-            if (value.equals(VirtualStatPoint.NotInitializedString) || value.startsWith("QERR")) {
+            if (!value.isInitialized() || value.isError()) {
                 numErrors++;
                 continue;
             }
 
-            try {
-                // Analog + value greater than 0 ==> ON
-                float fValue = Float.parseFloat(value);
-
-                if (fValue > 0) {
-                    result = onString;
-                    break;
-                }
-            } catch (Exception e) {
-                // Binary + value "active" ==> ON
-                if (value.equals(VirtualStatPoint.ActiveString)) {
-                    result = onString;
-                    break;
-                }
+            // Analog + value greater than 0 ==> ON, Binary + value "active" ==> ON
+            if (value.isOn()) {
+                result = onString;
+                break;
             }
         }
 
-        if (numErrors == lights.length) {
-            result = lights[0].getValue(); // For now take the first error.
+        if (numErrors == lightsValues.length) {
+            result = lightsValues[0].raw; // For now take the first error.
         }
 
         return result;
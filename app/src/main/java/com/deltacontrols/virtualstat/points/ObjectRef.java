@@ -0,0 +1,199 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * ObjectRef.java
+ */
+package com.deltacontrols.virtualstat.points;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Parsed BACnet object reference, ie. "/.bacnet/MainSite/5601/multi-state-value,51" or "/.bacnet/MainSite/5601/analog-value,1/present-value". 
+ * 
+ * References are parsed by a single pass over the string (no split or regex) and interned: {@link #valueOf(String)} returns the same 
+ * instance for the same reference for as long as any point holds it, so loading many stats that share points parses each reference once. 
+ * Immutable.
+ */
+public final class ObjectRef {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public static final ObjectRef Empty = new ObjectRef("");
+
+    // Interned references; weak so references no longer held by any point can be collected.
+    private static final WeakHashMap<String, WeakReference<ObjectRef>> sInterned = new WeakHashMap<String, WeakReference<ObjectRef>>();
+
+    // Known object types (lower case) and the point type for each.
+    private static final String[] ObjectTypes = { 
+        "analog-input", "analog-output", "analog-value", 
+        "binary-input", "binary-output", "binary-value", 
+        "multi-state-input", "multi-state-output", "multi-state-value" };
+    private static final VirtualStatPoint.Type[] PointTypes = { 
+        VirtualStatPoint.Type.ANALOG, VirtualStatPoint.Type.ANALOG, VirtualStatPoint.Type.ANALOG, 
+        VirtualStatPoint.Type.BINARY, VirtualStatPoint.Type.BINARY, VirtualStatPoint.Type.BINARY, 
+        VirtualStatPoint.Type.MULTISTATE, VirtualStatPoint.Type.MULTISTATE, VirtualStatPoint.Type.MULTISTATE };
+
+    public final String ref;        // The full reference (trimmed)
+    public final String site;       // ie. "MainSite"; null if not present
+    public final String device;     // ie. "5601"; null if not present
+    public final String objectType; // ie. "multi-state-value" (lower case); null if not present
+    public final int instance;      // ie. 51; -1 if not present
+    public final String property;   // ie. "present-value"; null if not present
+    public final VirtualStatPoint.Type type;
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    private ObjectRef(String ref) {
+        String site = null, device = null, objectType = null, property = null;
+        int instance = -1;
+        VirtualStatPoint.Type type = VirtualStatPoint.Type.UNKNOWN;
+
+        // Find the object segment (the first segment containing a ',') while remembering the two segments before it.
+        int length = ref.length();
+        int start = 0, prevStart = -1, prevPrevStart = -1;
+        int objectStart = -1, objectEnd = -1, comma = -1;
+
+        if (length >= 10) {
+            while (start <= length) {
+                int end = ref.indexOf('/', start);
+                if (end < 0) {
+                    end = length;
+                }
+
+                int c = ref.indexOf(',', start);
+                if ((c >= 0) && (c < end)) {
+                    objectStart = start;
+                    objectEnd = end;
+                    comma = c;
+                    break;
+                }
+
+                prevPrevStart = prevStart;
+                prevStart = start;
+                start = end + 1;
+            }
+        }
+
+        if (objectStart >= 0) {
+            if (prevStart >= 0) {
+                device = ref.substring(prevStart, objectStart - 1);
+            }
+            if ((prevPrevStart >= 0) && (prevStart - 1 > prevPrevStart) && (ref.charAt(prevPrevStart) != '.')) {
+                site = ref.substring(prevPrevStart, prevStart - 1);
+            }
+            if (objectEnd + 1 < length) {
+                int end = ref.indexOf('/', objectEnd + 1);
+                property = ref.substring(objectEnd + 1, (end < 0) ? length : end);
+            }
+
+            // Instance
+            int value = 0;
+            boolean digits = (comma + 1 < objectEnd);
+            for (int i = comma + 1; i < objectEnd; i++) {
+                char ch = ref.charAt(i);
+                if ((ch < '0') || (ch > '9')) {
+                    digits = false;
+                    break;
+                }
+                value = (value * 10) + (ch - '0');
+            }
+            instance = digits ? value : -1;
+
+            // Object type; ignore trailing digits and case
+            int typeEnd = comma;
+            while ((typeEnd > objectStart) && Character.isDigit(ref.charAt(typeEnd - 1))) {
+                typeEnd--;
+            }
+            if (ref.lastIndexOf('-', typeEnd - 1) >= objectStart) {
+                for (int i = 0; i < ObjectTypes.length; i++) {
+                    if (ref.regionMatches(true, objectStart, ObjectTypes[i], 0, typeEnd - objectStart) 
+                            && (ObjectTypes[i].length() == typeEnd - objectStart)) {
+                        objectType = ObjectTypes[i];
+                        type = PointTypes[i];
+                        break;
+                    }
+                }
+                if (objectType == null) {
+                    objectType = ref.substring(objectStart, typeEnd).toLowerCase();
+                }
+            }
+        }
+
+        this.ref = ref;
+        this.site = site;
+        this.device = device;
+        this.objectType = objectType;
+        this.instance = instance;
+        this.property = property;
+        this.type = type;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Returns the (interned) parsed reference.
+     * 
+     * @param ref The reference string; leading and trailing whitespace is ignored.
+     * @return The parsed reference; {@link #Empty} if the reference is null or empty.
+     */
+    public static ObjectRef valueOf(String ref) {
+        if (ref == null) {
+            return Empty;
+        }
+
+        ref = ref.trim();
+        if (ref.length() == 0) {
+            return Empty;
+        }
+
+        synchronized (sInterned) {
+            WeakReference<ObjectRef> weak = sInterned.get(ref);
+            ObjectRef objectRef = (weak != null) ? weak.get() : null;
+
+            if (objectRef == null) {
+                objectRef = new ObjectRef(ref);
+                sInterned.put(objectRef.ref, new WeakReference<ObjectRef>(objectRef)); // Key is held by the value, so lives as long as it
+            }
+            return objectRef;
+        }
+    }
+
+    public boolean isEmpty() {
+        return ref.length() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return ref;
+    }
+}
@@ -0,0 +1,188 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * PointSchema.java
+ */
+package com.deltacontrols.virtualstat.points;
+
+/**
+ * Describes the points that make up a virtual stat: one {@link Slot} per point with its id (index into the stat's point array), the key 
+ * used for it in the enteliweb/api/views JSON, its point class and flags saying which bulk operations include it. The stat keeps its 
+ * points in an array in slot order, so every bulk operation is a single loop over the schema; adding a point is one more line in 
+ * {@link #Slots}.
+ */
+public final class PointSchema {
+
+    /**
+     * Descriptor for a single point of the stat.
+     */
+    public static final class Slot {
+        public final int id;
+        public final String key;            // Key in the system JSON
+        public final Class<? extends VirtualStatPoint> pointClass;
+        public final int flags;
+
+        Slot(int id, String key, Class<? extends VirtualStatPoint> pointClass, int flags) {
+            this.id = id;
+            this.key = key;
+            this.pointClass = pointClass;
+            this.flags = flags;
+        }
+
+        public boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Flags
+    // --------------------------------------------------------------------------------
+    public static final int READ = 0x01;    // Refreshed from (and written to) eWEB by the sync loop
+    public static final int WRITE = 0x02;   // May be changed by the user; included in the PropertyList XML
+    public static final int LIGHT = 0x04;   // One of the lights (see VirtualStat.getLights)
+    public static final int CHILD = 0x08;   // Owned by the point in the previous slot (ie. the fan override); not created, loaded with errors 
+                                            // reported or included in the markAll / restoreAll operations on its own
+
+    // --------------------------------------------------------------------------------
+    // Slots
+    // --------------------------------------------------------------------------------
+    public static final int TEMP = 0;
+    public static final int TEMP_SP = 1;
+    public static final int OUTDOOR_TEMP = 2;
+    public static final int LIGHTS1 = 3;
+    public static final int LIGHTS2 = 4;
+    public static final int LIGHTS3 = 5;
+    public static final int LIGHTS4 = 6;
+    public static final int FAN = 7;
+    public static final int FAN_OVERRIDE = 8;
+    public static final int BLINDS = 9;
+    public static final int OCCUPANCY = 10;
+    public static final int TIMED_OVERRIDE = 11;
+
+    // Order matters: READ slots are sent to eWEB in this order.
+    public static final Slot[] Slots = new Slot[] {
+        new Slot(TEMP,              "TEMP",             TempPoint.class,            READ),
+        new Slot(TEMP_SP,           "TEMP_SP",          TempPoint.class,            READ | WRITE),
+        new Slot(OUTDOOR_TEMP,      "OUTDOOR_TEMP",     TempPoint.class,            READ),
+        new Slot(LIGHTS1,           "LIGHTS1",          LightsPoint.class,          READ | WRITE | LIGHT),
+        new Slot(LIGHTS2,           "LIGHTS2",          LightsPoint.class,          READ | WRITE | LIGHT),
+        new Slot(LIGHTS3,           "LIGHTS3",          LightsPoint.class,          READ | WRITE | LIGHT),
+        new Slot(LIGHTS4,           "LIGHTS4",          LightsPoint.class,          READ | WRITE | LIGHT),
+        new Slot(FAN,               "FAN",              FanPoint.class,             READ | WRITE),
+        new Slot(FAN_OVERRIDE,      "FAN_OVERRIDE",     FanOverridePoint.class,     READ | WRITE | CHILD),
+        new Slot(BLINDS,            "BLINDS",           BlindsPoint.class,          READ | WRITE),
+        new Slot(OCCUPANCY,         "OCCUPANCY",        OccupancyPoint.class,       WRITE),
+        new Slot(TIMED_OVERRIDE,    "TIMED_OVERRIDE",   TimedOverridePoint.class,   WRITE),
+    };
+
+    public static final int SlotCount = Slots.length;
+    public static final int FirstLight = first(LIGHT);     // Lights occupy consecutive slots
+    public static final int LightsCount = count(LIGHT);
+    public static final int ReadCount = count(READ);
+
+    private PointSchema() {
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Looks up the slot for a key in the system JSON.
+     * 
+     * @param key Key as used in the enteliweb/api/views JSON (ie. "TEMP_SP").
+     * @return The slot id, or -1 if the key is not part of the schema.
+     */
+    public static int indexOf(String key) {
+        for (Slot slot : Slots) {
+            if (slot.key.equals(key)) {
+                return slot.id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a new (empty) point for every slot; child slots are filled with the point owned by their parent.
+     * 
+     * @return The points, indexed by slot id.
+     */
+    public static VirtualStatPoint[] createPoints() {
+        VirtualStatPoint[] points = new VirtualStatPoint[SlotCount];
+
+        for (int i = 0; i < SlotCount; i++) {
+            points[i] = Slots[i].has(CHILD) ? getChild(points[i - 1]) : create(Slots[i].pointClass);
+        }
+        return points;
+    }
+
+    private static VirtualStatPoint create(Class<? extends VirtualStatPoint> pointClass) {
+        if (pointClass == TempPoint.class) {
+            return new TempPoint();
+        }
+        else if (pointClass == LightsPoint.class) {
+            return new LightsPoint();
+        }
+        else if (pointClass == FanPoint.class) {
+            return new FanPoint();
+        }
+        else if (pointClass == BlindsPoint.class) {
+            return new BlindsPoint();
+        }
+        else if (pointClass == OccupancyPoint.class) {
+            return new OccupancyPoint();
+        }
+        else if (pointClass == TimedOverridePoint.class) {
+            return new TimedOverridePoint();
+        }
+        return new VirtualStatPoint();
+    }
+
+    private static VirtualStatPoint getChild(VirtualStatPoint parent) {
+        return (parent instanceof FanPoint) ? ((FanPoint) parent).override : null;
+    }
+
+    private static int first(int flag) {
+        for (Slot slot : Slots) {
+            if (slot.has(flag)) {
+                return slot.id;
+            }
+        }
+        return -1;
+    }
+
+    private static int count(int flag) {
+        int count = 0;
+        for (Slot slot : Slots) {
+            if (slot.has(flag)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
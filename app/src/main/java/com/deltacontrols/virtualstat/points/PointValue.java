@@ -0,0 +1,173 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * PointValue.java
+ */
+package com.deltacontrols.virtualstat.points;
+
+/**
+ * Typed copy of a point value, parsed once when the value comes in (from eWEB or from the user) so that rendering and comparing values 
+ * never has to parse the raw string again: ANALOG values are kept as a double, BINARY values as a boolean, MULTISTATE values as an int and 
+ * QERR values as an error code. Immutable; a point replaces its PointValue whenever its value changes, so it can also be shared by 
+ * snapshots.
+ */
+public final class PointValue {
+
+    public static enum Kind {
+        NOT_INITIALIZED, ANALOG, BINARY, MULTISTATE, ERROR, TEXT
+    };
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public static final PointValue NotInitialized = new PointValue(Kind.NOT_INITIALIZED, VirtualStatPoint.NotInitializedString, Double.NaN, false, 0);
+
+    public final Kind kind;
+    public final String raw;        // Value as received / sent
+    public final double analog;     // ANALOG value; NaN for any other kind
+    public final boolean active;    // BINARY value (true if active)
+    public final int state;         // MULTISTATE state (1 based); 0 for any other kind
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    private PointValue(Kind kind, String raw, double analog, boolean active, int state) {
+        this.kind = kind;
+        this.raw = raw;
+        this.analog = analog;
+        this.active = active;
+        this.state = state;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Parses a raw value for a point of the given type. Values that do not match the type (ie. text from a point whose reference is not 
+     * recognized) are kept as TEXT.
+     * 
+     * @param raw The raw value (as sent by eWEB)
+     * @param type The point type
+     */
+    public static PointValue parse(String raw, VirtualStatPoint.Type type) {
+        if ((raw == null) || raw.equals(VirtualStatPoint.NotInitializedString)) {
+            return NotInitialized;
+        }
+
+        if (raw.startsWith("QERR")) {
+            return new PointValue(Kind.ERROR, raw, Double.NaN, false, 0);
+        }
+
+        // Binary values may come in for a point of unknown type as well
+        if (raw.equals(VirtualStatPoint.ActiveString) || raw.equals(VirtualStatPoint.InactiveString)) {
+            if ((type == VirtualStatPoint.Type.BINARY) || (type == VirtualStatPoint.Type.UNKNOWN)) {
+                return new PointValue(Kind.BINARY, raw, Double.NaN, raw.equals(VirtualStatPoint.ActiveString), 0);
+            }
+            return new PointValue(Kind.TEXT, raw, Double.NaN, false, 0);
+        }
+
+        try {
+            double value = Double.parseDouble(raw);
+
+            if (type == VirtualStatPoint.Type.MULTISTATE) {
+                if (value == Math.rint(value)) {
+                    return new PointValue(Kind.MULTISTATE, raw, Double.NaN, false, (int) value);
+                }
+            }
+            else if ((type == VirtualStatPoint.Type.ANALOG) || (type == VirtualStatPoint.Type.UNKNOWN)) {
+                return new PointValue(Kind.ANALOG, raw, value, false, 0);
+            }
+        } 
+        catch (NumberFormatException e) {
+            /* Not a number, keep as text */
+        }
+
+        return new PointValue(Kind.TEXT, raw, Double.NaN, false, 0);
+    }
+
+    /**
+     * Recreates a value from its parts (ie. when decoding a saved stat) without parsing the raw value again.
+     */
+    public static PointValue restore(Kind kind, String raw, double analog, boolean active, int state) {
+        if (kind == Kind.NOT_INITIALIZED) {
+            return NotInitialized;
+        }
+        return new PointValue(kind, raw, analog, active, state);
+    }
+
+    public boolean isInitialized() {
+        return kind != Kind.NOT_INITIALIZED;
+    }
+
+    public boolean isError() {
+        return kind == Kind.ERROR;
+    }
+
+    /**
+     * @return The QERR error code, or null if the value is not an error.
+     */
+    public String getErrorCode() {
+        return (kind == Kind.ERROR) ? raw : null;
+    }
+
+    /**
+     * @return True if the value is considered 'On' (ie. ANALOG > 0 or BINARY active).
+     */
+    public boolean isOn() {
+        return ((kind == Kind.ANALOG) && (analog > 0)) || ((kind == Kind.BINARY) && active);
+    }
+
+    /**
+     * @return True if both values are the same (ie. "21" and "21.0" for an ANALOG point); compares the typed values, not the raw strings.
+     */
+    public boolean sameAs(PointValue other) {
+        if (other == this) {
+            return true;
+        }
+        if ((other == null) || (other.kind != kind)) {
+            return false;
+        }
+
+        switch (kind) {
+            case ANALOG:
+                return Double.compare(analog, other.analog) == 0;
+            case BINARY:
+                return active == other.active;
+            case MULTISTATE:
+                return state == other.state;
+            default:
+                return raw.equals(other.raw);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return raw;
+    }
+}
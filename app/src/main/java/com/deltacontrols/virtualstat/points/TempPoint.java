@@ -31,9 +31,6 @@ POSSIBILITY OF SUCH DAMAGE.
  */
 package com.deltacontrols.virtualstat.points;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-
 /**
  * Temperature
  */
@@ -56,25 +53,17 @@ public class TempPoint extends VirtualStatPoint {
     /**
      * Returns formatted temp value If the value is not an error, this function will format the temperature to a single point of 
      * precision and add a degree symbol.
-     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#getValueFormatted()
+     * @see com.deltacontrols.virtualstat.points.VirtualStatPoint#formatValue()
      */
     @Override
-    public String getValueFormatted() {
+    protected String formatValue() {
 
         String result = mValue;
         char degreeSymbol = 0x00B0;        
 
-        if (!mValue.startsWith("QERR")) {
-            // Parse into desired format and display
-            try {
-                double valued = Double.parseDouble(mValue);
-                DecimalFormatSymbols decimalFormatSymbols = new DecimalFormatSymbols();
-                decimalFormatSymbols.setDecimalSeparator('.');                
-                DecimalFormat decimalFormat = new DecimalFormat("###0.0", decimalFormatSymbols);
-                result = decimalFormat.format(valued) + degreeSymbol;
-            } catch (Exception e) {
-                result = mValue;
-            }
+        // Errors and values that are not numbers are shown as is
+        if (mTypedValue.kind == PointValue.Kind.ANALOG) {
+            result = ValueFormat.formatOneDecimal(mTypedValue.analog) + degreeSymbol;
         }
         
         return result;
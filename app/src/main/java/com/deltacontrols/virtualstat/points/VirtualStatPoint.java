@@ -67,14 +67,23 @@ public class VirtualStatPoint
     public static final String DefaultPriority = "10";
 
     public String name;         // Descriptor
-    public boolean isDirty;     // If isDirty is true; then value has been changed locally but not written to the device.
+    private boolean mDirty;      // If dirty; then value has been changed locally but not written to the device. Kept in mDirtySet if attached.
+    private DirtySet mDirtySet;  // Dirty flags of the stat the point belongs to; null if not attached
+    private int mDirtyBit;
 
-    protected String mFullRef;  // Object Reference (ie. //MainSite/5600.AV1)
+    protected ObjectRef mObjectRef; // Object Reference (ie. /.bacnet/MainSite/5600/analog-value,1); parsed and interned
     protected String mValue;    // Object value (not formatted, no units, raw value)
     protected String mOldValue; // Last known value set by the system; may or may not be equal to value.
+    protected PointValue mTypedValue;    // mValue parsed (once, when set); used for rendering and comparisons
+    protected PointValue mTypedOldValue; // mOldValue parsed
     protected Type mType;       // Reference type; note: read only - set when fullRef set
     protected String mDataType; // Object data type
 
+    private volatile Formatted mFormatted; // Memoized result of formatValue(); see getValueFormatted()
+
+    protected int mWriteGeneration; // Incremented each time a user change to the point is sent to eWEB
+    protected int mReadGeneration;  // Write generation at the time the current read was issued
+
     // --------------------------------------------------------------------------------
     // Constructors
     // --------------------------------------------------------------------------------
@@ -97,31 +106,49 @@ public class VirtualStatPoint
      * @param json JSON for point as returned from GET api/systems
      */
     public void loadFromJSON(JSONObject json) {
+        load(json.optString("physical", null), json.optString("value", null), json.optString("displayName", null), json.optString("$base", null));
+    }
 
-        try {
-            // Parse ref
-            this.setFullRef(json.getString("physical"));
-
-            // Set value
-            String value = json.getString("value");
-            
-            this.setName(json.getString("displayName"));
-            
-            this.setDataType(json.getString("$base"));
-            
-            // If value is empty assume it is uninitialized
-            if (value.equals("")) {
-                value = VirtualStatPoint.NotInitializedString;
-            }
+    /**
+     * Sets the point properties from the parts of a point's system JSON; a null part stops the load (as a missing JSON property would), leaving 
+     * the remaining properties untouched. A missing name does not stop the load; the point has no name after its reference was changed.
+     * 
+     * @param physical Full reference ("physical")
+     * @param value Point value ("value"); an empty value is treated as uninitialized
+     * @param displayName Point name ("displayName")
+     * @param dataType Point data type ("$base")
+     */
+    public void load(String physical, String value, String displayName, String dataType) {
+        if (physical == null) {
+            return;
+        }
+        this.setFullRef(physical);
+
+        if (value == null) {
+            return;
+        }
+        if (displayName != null) {
+            this.setName(displayName);
+        }
 
-            if (!value.equals(VirtualStatPoint.NotInitializedString)) {
+        if (dataType == null) {
+            return;
+        }
+        this.setDataType(dataType);
+
+        // If value is empty assume it is uninitialized
+        if (value.equals("")) {
+            value = VirtualStatPoint.NotInitializedString;
+        }
+
+        if (!value.equals(VirtualStatPoint.NotInitializedString)) {
+            try {
                 // NOTE If ActiveString and InactiveString ever change, we may need to adapt capitalization here.
                 this.setValue(value, SetBy.SYSTEM);
+            } 
+            catch (Exception e) { 
+                /* Non mapped values will get caught here, catch quietly */
             }
-
-        } 
-        catch (Exception e) { 
-            /* Non mapped values will get caught here, catch quietly */
         }
     }
 
@@ -129,11 +156,11 @@ public class VirtualStatPoint
     // Override these methods
     // --------------------------------------------------------------------------------
     /**
-     * Returns the formatted value for the point. Note: Should be overridden by classes extending VirtualStatPoint.
+     * Formats the point's value (see {@link #getValueFormatted()}). Note: Should be overridden by classes extending VirtualStatPoint.
      * 
      * @return String Formatted point value or {@link NotInitializedString} if the point value has not yet been set.
      */
-    public String getValueFormatted() {
+    protected String formatValue() {
         return mValue;
     }
 
@@ -150,17 +177,58 @@ public class VirtualStatPoint
     // --------------------------------------------------------------------------------
     // Methods
     // --------------------------------------------------------------------------------
+    /**
+     * Memoized formatted value; the value it was formatted for is kept with it so a single (volatile) read always sees a matching pair.
+     */
+    private static final class Formatted {
+        final PointValue value;
+        final String text;
+
+        Formatted(PointValue value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Returns the formatted value for the point. The value is formatted (by {@link #formatValue()}) only when it has changed since the 
+     * last call.
+     * 
+     * @return String Formatted point value or {@link NotInitializedString} if the point value has not yet been set.
+     */
+    public String getValueFormatted() {
+        Formatted formatted = mFormatted;
+        PointValue value = mTypedValue;
+
+        if ((formatted == null) || (formatted.value != value)) {
+            formatted = new Formatted(value, formatValue());
+            mFormatted = formatted;
+        }
+        return formatted.text;
+    }
+
+    /**
+     * Forces the next {@link #getValueFormatted()} to format the value again; for points whose formatting depends on more than their 
+     * own value.
+     */
+    protected void invalidateFormatted() {
+        mFormatted = null;
+    }
+
     /**
      * Sets default values for the point
      */
     private void resetDefaultValues() {
         name = null;
-        isDirty = false;
+        setDirty(false);
 
-        mFullRef = "";
+        mObjectRef = ObjectRef.Empty;
         mType = Type.UNKNOWN;
         mValue = NotInitializedString;
         mOldValue = NotInitializedString;
+        mTypedValue = PointValue.NotInitialized;
+        mTypedOldValue = PointValue.NotInitialized;
+        mFormatted = null; // Formatting depends on the type as well
     }
 
     /**
@@ -169,7 +237,16 @@ public class VirtualStatPoint
      * @return String The full reference; if reference not set, will return an empty string.
      */
     public String getFullRef() {
-        return mFullRef;
+        return mObjectRef.ref;
+    }
+
+    /**
+     * Returns the parsed reference
+     * 
+     * @return The reference; {@link ObjectRef#Empty} if reference not set.
+     */
+    public ObjectRef getObjectRef() {
+        return mObjectRef;
     }
 
     /**
@@ -182,8 +259,8 @@ public class VirtualStatPoint
         }
 
         resetDefaultValues();
-        mFullRef = ref.trim();
-        mType = getType(mFullRef);     
+        mObjectRef = ObjectRef.valueOf(ref);
+        mType = mObjectRef.type;
     }
 
     /**
@@ -221,6 +298,22 @@ public class VirtualStatPoint
         return mValue;
     }
 
+    /**
+     * Returns the typed value for the point; parsed when the value was set, so no parsing is needed to render or compare it.
+     * 
+     * @return The current value, {@link PointValue#NotInitialized} if the point value has not yet been set.
+     */
+    public PointValue getTypedValue() {
+        return mTypedValue;
+    }
+
+    /**
+     * Returns the typed 'oldValue' for the point (see {@link #getOldValue()}).
+     */
+    public PointValue getTypedOldValue() {
+        return mTypedOldValue;
+    }
+
     /**
      * Returns the point's 'oldValue' (the last known value verified from eWEB)
      * 
@@ -242,46 +335,132 @@ public class VirtualStatPoint
     public boolean setValue(String newValue, SetBy setByFlag) {
 
         boolean update = true;
+        // Only parse of the value; a refresh mostly repeats the value the point already has, so its parsed value is reused then.
+        PointValue typedValue;
+        if ((newValue != null) && newValue.equals(mOldValue)) {
+            typedValue = mTypedOldValue;
+        }
+        else if ((newValue != null) && newValue.equals(mValue)) {
+            typedValue = mTypedValue;
+        }
+        else {
+            typedValue = PointValue.parse(newValue, mType);
+        }
 
         // Handle change by user: set to dirty and set to manual put in manual.
         if (setByFlag == SetBy.USER) {
 
             // Do not update if value has not changed.
-            if (newValue.equals(mValue)) {
+            if (typedValue.sameAs(mTypedValue)) {
                 return false; // Did not update value.
             }
 
-            isDirty = true;
+            setDirty(true);
             mValue = newValue;
+            mTypedValue = typedValue;
 
             // Set oldValue only if it has not yet been initialized.
-            if (mOldValue.equals(NotInitializedString)) {
+            if (!mTypedOldValue.isInitialized()) {
                 mOldValue = mValue;
+                mTypedOldValue = mTypedValue;
             }
         }
         // Handle change by system: set old value, and only set value if not dirty.
         else {
             mOldValue = newValue;
+            mTypedOldValue = typedValue;
 
-            if (isDirty) {
+            if (isDirty()) {
                 update = false; // Did not update value.
             }
             else {
                 mValue = newValue;
+                mTypedValue = typedValue;
             }
         }
 
         return update;
     }
 
+    /**
+     * Restores the point's values and dirty flag as they were saved (see {@link com.deltacontrols.virtualstat.store.StatCodec}); the typed 
+     * values are used as is, not parsed again.
+     */
+    public void restoreValues(PointValue value, PointValue oldValue, boolean dirty) {
+        mValue = value.raw;
+        mTypedValue = value;
+        mOldValue = oldValue.raw;
+        mTypedOldValue = oldValue;
+        setDirty(dirty);
+    }
+
+    /**
+     * Returns true if the value has been changed locally (by the user) but not yet written to eWEB.
+     */
+    public boolean isDirty() {
+        DirtySet dirtySet = mDirtySet;
+        return (dirtySet != null) ? dirtySet.isSet(mDirtyBit) : mDirty;
+    }
+
+    public void setDirty(boolean dirty) {
+        DirtySet dirtySet = mDirtySet;
+        if (dirtySet != null) {
+            dirtySet.set(mDirtyBit, dirty);
+        }
+        else {
+            mDirty = dirty;
+        }
+    }
+
+    /**
+     * Keeps the point's dirty flag in the given bit of the stat's {@link DirtySet} from now on (or in the point itself if null); the 
+     * current flag is carried over.
+     */
+    public void attachDirtySet(DirtySet dirtySet, int bit) {
+        boolean dirty = isDirty();
+        mDirtySet = dirtySet;
+        mDirtyBit = bit;
+        setDirty(dirty);
+    }
+
+    /**
+     * Called when a put containing the point's value is sent to eWEB; any read issued before this moment may contain a stale value for the point.
+     */
+    public void markWriteSent() {
+        mWriteGeneration++;
+    }
+
+    /**
+     * Returns the point's write generation; compare against a later value to know whether a put for the point was sent in between.
+     */
+    public int getWriteGeneration() {
+        return mWriteGeneration;
+    }
+
+    /**
+     * Called when a read containing the point is issued; records the write generation the read will be compared against.
+     */
+    public void markReadIssued() {
+        mReadGeneration = mWriteGeneration;
+    }
+
+    /**
+     * Returns true if a put for the point was sent after the current read was issued, in which case the value returned by that read 
+     * should not be applied.
+     */
+    public boolean isReadStale() {
+        return mReadGeneration != mWriteGeneration;
+    }
+
     /**
      * Attempts to restore the point's value to use the 'oldValue' assuming the point is not dirty. This function is primarily used when updating 
      * point values using values from the server - we do not want to overwrite any dirty values (ie. values that have been changed by the user but 
      * have not been sent to eWEB) as that would cause confusion in the UI.
      */
     public void restoreOldValueIfNotDirty() {
-        if (!(isDirty || mOldValue.equals(NotInitializedString))) {
+        if (!(isDirty() || !mTypedOldValue.isInitialized())) {
             mValue = mOldValue;
+            mTypedValue = mTypedOldValue;
         }
     }
 
@@ -293,12 +472,12 @@ public class VirtualStatPoint
      */
     public String asXMLStr() {
 
-        if (mFullRef == "") {
+        if (mObjectRef.isEmpty()) {
             return "";
         }
 
         StringBuffer xml = new StringBuffer();
-        xml.append("<Object ref=\"" + mFullRef + "\">");
+        xml.append("<Object ref=\"" + mObjectRef.ref + "\">");
 
         // Handle null value, we will more than likely never do this in this app - putting this here for completeness.
         if (mValue == null) {
@@ -321,7 +500,7 @@ public class VirtualStatPoint
      * @return
      */
     public boolean isSetup() {
-        return mFullRef.endsWith("");
+        return mObjectRef.ref.endsWith("");
     }
 
     // --------------------------------------------------------------------------------
@@ -334,43 +513,7 @@ public class VirtualStatPoint
      * @return Type of the object; if object is unknown or incorrectly formatted, will return {@link Type#UNKNOWN}.
      */
     public static Type getType(String ref) {
-        Type type = Type.UNKNOWN;
-        if (ref == null) {
-            return type;
-        }
-        if (ref.length() < 10){
-        	return type;
-        }
-
-        String[] split = ref.split("/");
-        String objAbbr = null;
-
-        for (int i = 0; i < split.length; i++) {
-            if (split[i].contains(",")) {
-            	// Seperate the object type and object instance
-            	split = split[i].split(",");
-            	// Extract the object type
-            	if (split[0].contains("-"))
-            		objAbbr = split[0];
-                break;
-            }
-        }
-
-        if (objAbbr != null) {
-            objAbbr = objAbbr.replaceAll("[0-9]*$", "").toLowerCase(); // remove trailing numbers
-
-            if (objAbbr.equals("analog-output") || objAbbr.equals("analog-input") || objAbbr.equals("analog-value")) {
-                type = Type.ANALOG;
-            }
-            else if (objAbbr.equals("binary-output") || objAbbr.equals("binary-input") || objAbbr.equals("binary-value")) {
-                type = Type.BINARY;
-            }
-            else if (objAbbr.equals("multi-state-output") || objAbbr.equals("multi-state-input") || objAbbr.equals("multi-state-value")) {
-                type = Type.MULTISTATE;
-            }
-        }
-
-        return type;
+        return ObjectRef.valueOf(ref).type;
     }
     
     /**
@@ -0,0 +1,220 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * CatalogStore.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.util.Log;
+
+import com.deltacontrols.virtualstat.points.PointSchema;
+
+/**
+ * Keeps the last stat catalog on disk (one file per server and user) so the stat list can be shown immediately on start up, while the 
+ * catalog is requested again in the background (stale-while-revalidate). The catalog is stored as a compact binary file of 
+ * {@link StatDescriptor}s (see {@link StatDescriptor#writeTo(java.io.DataOutput)}); it is written to a temporary file and renamed, so a 
+ * crash never leaves a torn catalog. All file I/O is done on the {@link StoreThread}.
+ */
+public class CatalogStore {
+
+    /**
+     * Receives the result of {@link CatalogStore#loadAsync(String, String, Listener)}; called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param stats Stats in the stored catalog; null if there is no (usable) stored catalog.
+         */
+        public void onCatalogLoaded(ArrayList<StatDescriptor> stats);
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "CatalogStore";
+
+    private static final int Magic = 0x56534354;   // "VSCT"
+    private static final int Version = 1;           // Increase when the file layout changes; older files are ignored
+
+    private final File mDir;
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * @param dir Directory to keep the catalog files in.
+     */
+    public CatalogStore(File dir) {
+        mDir = dir;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Reads the stored catalog for the server and user on the store thread, and hands it to the listener on the main thread.
+     */
+    public void loadAsync(final String url, final String user, final Listener listener) {
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<StatDescriptor> stats = load(url, user);
+                StoreThread.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCatalogLoaded(stats);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores the catalog for the server and user on the store thread; replaces any previously stored catalog.
+     */
+    public void saveAsync(final String url, final String user, ArrayList<StatDescriptor> stats) {
+        final ArrayList<StatDescriptor> copy = new ArrayList<StatDescriptor>(stats); // Descriptors are immutable; only the list is copied
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                save(url, user, copy);
+            }
+        });
+    }
+
+    /**
+     * Removes the stored catalog for the server and user (ie. when the server has no stats).
+     */
+    public void deleteAsync(final String url, final String user) {
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                fileFor(url, user).delete();
+            }
+        });
+    }
+
+    /**
+     * @return The stored catalog, or null if there is none, it is for a different server/user or schema, or it cannot be read.
+     */
+    ArrayList<StatDescriptor> load(String url, String user) {
+        File file = fileFor(url, user);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if ((in.readInt() != Magic) || (in.readInt() != Version) || (in.readInt() != PointSchema.SlotCount)
+                    || !in.readUTF().equals(url) || !in.readUTF().equals(user)) {
+                return null;
+            }
+
+            int count = in.readInt();
+            ArrayList<StatDescriptor> stats = new ArrayList<StatDescriptor>(count);
+            for (int i = 0; i < count; i++) {
+                stats.add(StatDescriptor.readFrom(in));
+            }
+            return stats;
+        } 
+        catch (IOException e) {
+            Log.e(TAG, "load: " + e.getMessage());
+            return null;
+        } 
+        finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes the catalog to a temporary file, syncs it and renames it over the stored catalog.
+     */
+    void save(String url, String user, ArrayList<StatDescriptor> stats) {
+        File file = fileFor(url, user);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+
+        try {
+            fileOut = new FileOutputStream(temp, false);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeInt(PointSchema.SlotCount);
+            out.writeUTF(url);
+            out.writeUTF(user);
+            out.writeInt(stats.size());
+            for (StatDescriptor stat : stats) {
+                stat.writeTo(out);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            close(fileOut);
+            fileOut = null;
+
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "save: could not rename " + temp.getName());
+            }
+        } 
+        catch (IOException e) {
+            Log.e(TAG, "save: " + e.getMessage());
+        } 
+        finally {
+            close(fileOut);
+        }
+    }
+
+    /**
+     * @return The catalog file for the server and user; the name is a hash, the server and user are checked when loading.
+     */
+    File fileFor(String url, String user) {
+        return new File(mDir, "catalog_" + Integer.toHexString((url + "\n" + user).hashCode()) + ".bin");
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } 
+            catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
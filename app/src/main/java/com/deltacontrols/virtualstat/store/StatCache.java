@@ -0,0 +1,171 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatCache.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Application wide cache of {@link StatDescriptor}s, keyed by stat name, so that switching stats does not need another request or parse. 
+ * The cache is bounded by an estimate of the memory held by its descriptors (see {@link StatDescriptor#sizeInBytes()}); once over budget, 
+ * the least recently used stats are evicted. The most recently added stat is always kept, even if it alone is over budget.
+ */
+public class StatCache {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private final LinkedHashMap<String, StatDescriptor> mStats = new LinkedHashMap<String, StatDescriptor>(16, 0.75f, true); // Access order
+    private long mMaxBytes;
+    private long mBytes;
+
+    // Counters
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * @param maxBytes Memory budget, in bytes, for the cached descriptors.
+     */
+    public StatCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * @return The cached stat (marking it as recently used), or null if not cached.
+     */
+    public synchronized StatDescriptor get(String statName) {
+        StatDescriptor stat = mStats.get(statName);
+        if (stat == null) {
+            mMisses++;
+        }
+        else {
+            mHits++;
+        }
+        return stat;
+    }
+
+    /**
+     * @return True if the stat is cached; does not count as a use of the stat.
+     */
+    public synchronized boolean contains(String statName) {
+        return mStats.containsKey(statName);
+    }
+
+    /**
+     * Adds (or replaces) a stat, then evicts the least recently used stats until the cache is back within budget.
+     */
+    public synchronized void set(String statName, StatDescriptor stat) {
+        StatDescriptor old = mStats.put(statName, stat);
+        if (old != null) {
+            mBytes -= old.sizeInBytes();
+        }
+        mBytes += stat.sizeInBytes();
+        trim();
+    }
+
+    public synchronized void remove(String statName) {
+        StatDescriptor old = mStats.remove(statName);
+        if (old != null) {
+            mBytes -= old.sizeInBytes();
+        }
+    }
+
+    public synchronized void clear() {
+        mStats.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Changes the memory budget; evicts immediately if the cache is over the new budget.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, StatDescriptor>> iter = mStats.entrySet().iterator();
+
+        // Eldest first; never evict the last entry.
+        while ((mBytes > mMaxBytes) && (mStats.size() > 1)) {
+            mBytes -= iter.next().getValue().sizeInBytes();
+            iter.remove();
+            mEvictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return mStats.size();
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * @return Plain text report of the cache size and counters.
+     */
+    public synchronized String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("stat cache: stats=").append(mStats.size())
+           .append(" bytes=").append(mBytes).append('/').append(mMaxBytes)
+           .append(" hits=").append(mHits)
+           .append(" misses=").append(mMisses)
+           .append(" evictions=").append(mEvictions)
+           .append('\n');
+        return out.toString();
+    }
+}
@@ -0,0 +1,260 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatCatalogParser.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import android.util.Log;
+
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.points.PointSchema;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Single pass parser for the enteliweb/api/views stat catalog. The catalog is streamed with a {@link JsonReader} straight into 
+ * {@link StatDescriptor}s; only the properties the app uses are kept and everything else (locations, templates, dashboards, unknown points) 
+ * is skipped without being built. Catalog parsing is done on the {@link StoreThread} (see {@link #parseAsync(String, Listener)}).
+ */
+public final class StatCatalogParser {
+
+    /**
+     * Receives the result of {@link #parseAsync(String, Listener)}; called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param stats Stats in the catalog, in catalog order; null if the catalog could not be parsed.
+         */
+        public void onCatalogParsed(ArrayList<StatDescriptor> stats);
+    }
+
+    private StatCatalogParser() {
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Parses the catalog on a background thread and hands the result to the listener on the main thread.
+     * 
+     * @param catalogJSON The enteliweb/api/views response.
+     * @param listener Listener to call once parsed.
+     */
+    public static void parseAsync(final String catalogJSON, final Listener listener) {
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<StatDescriptor> stats;
+                try {
+                    stats = parseCatalog(new StringReader(catalogJSON));
+                } 
+                catch (Exception e) {
+                    Log.e(App.TAG, "Error parsing stat catalog: " + e.getMessage());
+                    stats = null;
+                }
+
+                final ArrayList<StatDescriptor> result = stats;
+                StoreThread.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCatalogParsed(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Parses the full stat catalog.
+     * 
+     * <pre>
+     * {   Room 100: {
+     *         $base: "Collection",
+     *         Room 100: { ..., Objects: { $base: "Struct", TEMP: {...}, ... } },
+     *         Default System Dashboard: {...}
+     *     },
+     *     ...
+     * }
+     * </pre>
+     * 
+     * @param in Reader for the enteliweb/api/views response.
+     * @return One descriptor per view with an Objects section, in catalog order.
+     */
+    public static ArrayList<StatDescriptor> parseCatalog(Reader in) throws IOException {
+        ArrayList<StatDescriptor> stats = new ArrayList<StatDescriptor>();
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+
+        try {
+            String name, itemName;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                name = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    itemName = reader.nextName();
+                    // Only interested in the individual view
+                    if (itemName.contains("$base") || itemName.contains("Default System Dashboard") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                    }
+                    else {
+                        readView(reader, name, stats);
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } 
+        finally {
+            reader.close();
+        }
+
+        return stats;
+    }
+
+    /**
+     * Parses the system JSON of a single stat, as created by {@link StatDescriptor#toJSONString()} or 
+     * {@link com.deltacontrols.virtualstat.VirtualStat#createSystemJSONString()}.
+     * 
+     * @param statJSON The system JSON.
+     * @return The descriptor, or null if the JSON does not contain a stat.
+     */
+    public static StatDescriptor parseStat(String statJSON) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(statJSON));
+        reader.setLenient(true);
+
+        try {
+            StatDescriptor descriptor;
+
+            reader.beginObject();
+            if (!reader.hasNext()) {
+                return null;
+            }
+
+            descriptor = new StatDescriptor(reader.nextName());
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readObjects(reader, descriptor);
+            }
+            else {
+                reader.skipValue();
+            }
+            return descriptor;
+        } 
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a single view; adds a descriptor if the view has an Objects section.
+     */
+    private static void readView(JsonReader reader, String name, ArrayList<StatDescriptor> stats) throws IOException {
+        StatDescriptor descriptor = null;
+        String key;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            key = reader.nextName();
+            if (descriptor == null && key.contains("Objects") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                descriptor = new StatDescriptor(name);
+                readObjects(reader, descriptor);
+                stats.add(descriptor);
+            }
+            else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the points of a stat; points not in the {@link PointSchema} are skipped.
+     */
+    private static void readObjects(JsonReader reader, StatDescriptor descriptor) throws IOException {
+        int slot, field;
+        String value;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            slot = PointSchema.indexOf(reader.nextName());
+            if (slot < 0 || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            descriptor.markPresent(slot);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                field = StatDescriptor.fieldOf(reader.nextName());
+                if (field < 0) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                value = readString(reader);
+                if (value != null) {
+                    descriptor.set(slot, field, value);
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a scalar as a string (numbers and booleans as written, null as "null"); skips the value and returns null for objects and arrays.
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return "null";
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatCodec.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.util.Log;
+
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.VirtualStat;
+import com.deltacontrols.virtualstat.points.PointSchema;
+import com.deltacontrols.virtualstat.points.PointValue;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+
+/**
+ * Compact, versioned binary encoding of a stat's full state (point references, names, data types, typed values, old values and dirty 
+ * flags) used to hand a stat between activities (as a Bundle / Parcel byte array) or to keep it in a file. Encoding and decoding never 
+ * parse or format a value: typed values are written as their kind and parsed parts. 
+ * 
+ * Layout (all counts and indexes are unsigned varints): 
+ * 
+ * <pre>
+ * byte    format version
+ * byte    oldest reader version able to decode it
+ * varint  string count, then each string (modified UTF-8); every string is written once and referred to by index (0 is null)
+ * varint  stat name
+ * varint  point count, then per point:
+ *     varint  record length
+ *     varint  slot key (ie. "TEMP"); points are matched by key, so slots may be added or reordered
+ *     byte    flags (DIRTY, OLD_SAME)
+ *     varint  reference, data type, name
+ *     value   kind, raw string and the parsed parts for the kind
+ *     value   old value (unless OLD_SAME)
+ *     ...     fields added by later versions; skipped by older readers using the record length
+ * varint  extension length, then stat fields added by later versions (skipped by older readers)
+ * </pre>
+ * 
+ * A reader decodes any data whose oldest reader version is not newer than {@link #Version}; a later format that stays readable only 
+ * appends to point records and the extension block. Unknown points and unknown value kinds (the value is then parsed from its raw string) 
+ * are tolerated.
+ */
+public final class StatCodec {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public static final int Version = 1;            // Format written by this version
+    public static final int MinReaderVersion = 1;   // Oldest reader able to decode what this version writes
+
+    private static final int DIRTY = 0x01;          // Point has a local change not yet written to eWEB
+    private static final int OLD_SAME = 0x02;       // Old value is the same object as the value; not written
+
+    private static final PointValue.Kind[] Kinds = PointValue.Kind.values();
+
+    private StatCodec() {
+    }
+
+    // --------------------------------------------------------------------------------
+    // Encoding
+    // --------------------------------------------------------------------------------
+    /**
+     * Encodes the stat; the caller must hold the stat's model lock (see {@link VirtualStat#toBytes()}).
+     * 
+     * @return The encoded stat.
+     */
+    public static byte[] encode(VirtualStat stat) {
+        try {
+            Strings strings = new Strings();
+            ByteArrayOutputStream pointsBytes = new ByteArrayOutputStream(64 * PointSchema.SlotCount);
+            DataOutputStream points = new DataOutputStream(pointsBytes);
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            int nameIndex = strings.indexOf(stat.Name);
+
+            for (PointSchema.Slot slot : PointSchema.Slots) {
+                VirtualStatPoint point = stat.getPoint(slot.id);
+                PointValue value = point.getTypedValue();
+                PointValue oldValue = point.getTypedOldValue();
+                int flags = (point.isDirty() ? DIRTY : 0) | ((oldValue == value) ? OLD_SAME : 0);
+
+                recordBytes.reset();
+                writeVarint(record, strings.indexOf(slot.key));
+                record.writeByte(flags);
+                writeVarint(record, strings.indexOf(point.getFullRef()));
+                writeVarint(record, strings.indexOf(point.getDataType()));
+                writeVarint(record, strings.indexOf(point.getName()));
+                writeValue(record, strings, value);
+                if ((flags & OLD_SAME) == 0) {
+                    writeValue(record, strings, oldValue);
+                }
+                record.flush();
+
+                writeVarint(points, recordBytes.size());
+                recordBytes.writeTo(points);
+            }
+            points.flush();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(pointsBytes.size() + 32 * strings.list.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(Version);
+            out.writeByte(MinReaderVersion);
+            writeVarint(out, strings.list.size());
+            for (String s : strings.list) {
+                out.writeUTF(s);
+            }
+            writeVarint(out, nameIndex);
+            writeVarint(out, PointSchema.SlotCount);
+            pointsBytes.writeTo(out);
+            writeVarint(out, 0); // No extension
+            out.flush();
+
+            return bytes.toByteArray();
+        } 
+        catch (IOException e) {
+            // Byte array streams do not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Strings strings, PointValue value) throws IOException {
+        out.writeByte(value.kind.ordinal());
+        writeVarint(out, strings.indexOf(value.raw));
+        switch (value.kind) {
+            case ANALOG:
+                out.writeDouble(value.analog);
+                break;
+            case BINARY:
+                out.writeBoolean(value.active);
+                break;
+            case MULTISTATE:
+                writeVarint(out, value.state);
+                break;
+            default:
+                break; // Raw string only
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Decoding
+    // --------------------------------------------------------------------------------
+    /**
+     * Decodes the data into the (freshly initialized) stat; the caller must hold the stat's model lock (see 
+     * {@link VirtualStat#loadFromBytes(byte[])}).
+     * 
+     * @return True if decoded; false if the data is not a stat or was written by a format this version cannot read.
+     */
+    public static boolean decode(byte[] data, VirtualStat stat) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(bytes);
+
+        try {
+            int version = in.readUnsignedByte();
+            int minReaderVersion = in.readUnsignedByte();
+            if ((version < 1) || (minReaderVersion > Version)) {
+                Log.e(App.TAG, "StatCodec: unsupported format " + version + "/" + minReaderVersion);
+                return false;
+            }
+
+            int stringCount = readVarint(in);
+            if (stringCount > bytes.available() / 2) {
+                throw new IOException("bad string count " + stringCount); // Each string takes at least its two byte length; corrupt data
+            }
+            String[] strings = new String[stringCount + 1]; // Index 0 is null
+            for (int i = 1; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+
+            stat.Name = nonNull(string(strings, readVarint(in)));
+
+            int pointCount = readVarint(in);
+            for (int i = 0; i < pointCount; i++) {
+                int length = readVarint(in);
+                int end = bytes.available() - length; // Bytes left once the record is read
+                int slot = PointSchema.indexOf(string(strings, readVarint(in)));
+
+                if (slot >= 0) {
+                    readPoint(in, strings, stat.getPoint(slot));
+                }
+                skipFully(in, bytes.available() - end); // Skip the unknown point, or fields added by later versions
+            }
+
+            // Extension; nothing defined by this version.
+            skipFully(in, readVarint(in));
+            return true;
+        } 
+        catch (IOException e) {
+            Log.e(App.TAG, "StatCodec: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void readPoint(DataInputStream in, String[] strings, VirtualStatPoint point) throws IOException {
+        int flags = in.readUnsignedByte();
+        String ref = nonNull(string(strings, readVarint(in)));
+        String dataType = string(strings, readVarint(in));
+        String name = string(strings, readVarint(in));
+
+        point.setFullRef(ref); // References are interned (see ObjectRef)
+        point.setName(name);
+        point.setDataType(dataType);
+
+        PointValue value = readValue(in, strings, point);
+        PointValue oldValue = ((flags & OLD_SAME) != 0) ? value : readValue(in, strings, point);
+        point.restoreValues(value, oldValue, (flags & DIRTY) != 0);
+    }
+
+    private static PointValue readValue(DataInputStream in, String[] strings, VirtualStatPoint point) throws IOException {
+        int kind = in.readUnsignedByte();
+        String raw = string(strings, readVarint(in));
+
+        if (kind >= Kinds.length) {
+            // Kind added by a later version; its parts are not known, so parse the raw value. Note: a later version adding a kind 
+            // with extra parts must raise MinReaderVersion.
+            return PointValue.parse(raw, point.getType());
+        }
+
+        switch (Kinds[kind]) {
+            case NOT_INITIALIZED:
+                return PointValue.NotInitialized;
+            case ANALOG:
+                return PointValue.restore(Kinds[kind], raw, in.readDouble(), false, 0);
+            case BINARY:
+                return PointValue.restore(Kinds[kind], raw, Double.NaN, in.readBoolean(), 0);
+            case MULTISTATE:
+                return PointValue.restore(Kinds[kind], raw, Double.NaN, false, readVarint(in));
+            default:
+                return PointValue.restore(Kinds[kind], raw, Double.NaN, false, 0);
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Helpers
+    // --------------------------------------------------------------------------------
+    /**
+     * String table built while encoding; index 0 is reserved for null.
+     */
+    private static final class Strings {
+        final ArrayList<String> list = new ArrayList<String>();
+        final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+
+        int indexOf(String s) {
+            if (s == null) {
+                return 0;
+            }
+
+            Integer index = indexes.get(s);
+            if (index == null) {
+                list.add(s);
+                index = list.size();
+                indexes.put(s, index);
+            }
+            return index;
+        }
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index >= strings.length) {
+            throw new IOException("bad string index " + index);
+        }
+        return strings[index];
+    }
+
+    private static String nonNull(String s) {
+        return (s == null) ? "" : s;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("bad varint");
+                }
+                return value;
+            }
+        }
+        throw new IOException("bad varint");
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        if (count < 0) {
+            throw new IOException("bad record length");
+        }
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) {
+                throw new IOException("truncated data");
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatDescriptor.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.deltacontrols.virtualstat.StatSnapshot;
+import com.deltacontrols.virtualstat.points.PointSchema;
+
+/**
+ * Compact description of a single virtual stat as listed by enteliweb/api/views: the stat name and, for every {@link PointSchema} slot, the 
+ * handful of point properties the app actually uses. Descriptors are built once (by {@link StatCatalogParser} or from a snapshot) and loaded 
+ * straight into a VirtualStat with {@link com.deltacontrols.virtualstat.VirtualStat#loadFromDescriptor(StatDescriptor)}; no JSON is kept 
+ * around or parsed again. Descriptors are immutable once built, so they can be shared freely (ie. by the {@link StatCache}).
+ */
+public final class StatDescriptor {
+
+    // --------------------------------------------------------------------------------
+    // Fields (per slot)
+    // --------------------------------------------------------------------------------
+    public static final int BASE = 0;           // "$base"
+    public static final int VALUE = 1;          // "value"
+    public static final int PHYSICAL = 2;       // "physical"
+    public static final int DISPLAY_NAME = 3;   // "displayName"
+    public static final int ERROR_TEXT = 4;     // "errorText"; only present if eWEB could not read the point
+    public static final int FieldCount = 5;
+
+    private static final String[] FieldKeys = new String[] { "$base", "value", "physical", "displayName", "errorText" };
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public final String name;
+    private final String[] fields = new String[PointSchema.SlotCount * FieldCount]; // Indexed by slot * FieldCount + field
+    private final boolean[] present = new boolean[PointSchema.SlotCount];           // True if the slot was in the system JSON
+    private int size = 0;                                                           // Estimated size in bytes; 0 until computed
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    public StatDescriptor(String name) {
+        this.name = (name == null) ? "" : name;
+    }
+
+    /**
+     * Creates a descriptor holding the current values of a stat; used to keep the cached stat list up to date with the latest values.
+     */
+    public static StatDescriptor fromSnapshot(StatSnapshot stat) {
+        StatDescriptor descriptor = new StatDescriptor(stat.name);
+        StatSnapshot.PointSnapshot point;
+
+        for (int slot = 0; slot < PointSchema.SlotCount; slot++) {
+            point = stat.getPoint(slot);
+            // As in the system JSON (see StatJSONWriter), an unset data type or name is kept as empty rather than missing.
+            descriptor.set(slot, BASE, (point.dataType == null) ? "" : point.dataType);
+            descriptor.set(slot, VALUE, point.value);
+            descriptor.set(slot, PHYSICAL, point.ref);
+            descriptor.set(slot, DISPLAY_NAME, (point.name == null) ? "" : point.name);
+        }
+        return descriptor;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * @return The property key of the field in the point's system JSON.
+     */
+    public static String keyOf(int field) {
+        return FieldKeys[field];
+    }
+
+    /**
+     * @param key Property key in the point's system JSON.
+     * @return The field for the key, or -1 if the property is not used by the app.
+     */
+    public static int fieldOf(String key) {
+        for (int i = 0; i < FieldCount; i++) {
+            if (FieldKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets a point property; also marks the slot as present.
+     */
+    void set(int slot, int field, String value) {
+        fields[slot * FieldCount + field] = value;
+        present[slot] = true;
+    }
+
+    /**
+     * Marks the slot as present in the system JSON, even if none of its properties are set.
+     */
+    void markPresent(int slot) {
+        present[slot] = true;
+    }
+
+    /**
+     * @return The point property, or null if it was not in the system JSON.
+     */
+    public String get(int slot, int field) {
+        return fields[slot * FieldCount + field];
+    }
+
+    /**
+     * @return True if the system JSON contained the slot's point.
+     */
+    public boolean has(int slot) {
+        return present[slot];
+    }
+
+    /**
+     * @return True if the other descriptor has exactly the same name, points and values.
+     */
+    public boolean sameAs(StatDescriptor other) {
+        return (other != null) && name.equals(other.name) && Arrays.equals(present, other.present) && Arrays.equals(fields, other.fields);
+    }
+
+    /**
+     * Compares the points of two descriptors, ignoring their values; if the points are the same, a stat loaded from one descriptor does 
+     * not need to be reloaded from the other (the refresh will bring in new values).
+     * 
+     * @return True if the other descriptor has the same name and point references and names.
+     */
+    public boolean sameStructure(StatDescriptor other) {
+        if ((other == null) || !name.equals(other.name)) {
+            return false;
+        }
+
+        for (int slot = 0; slot < PointSchema.SlotCount; slot++) {
+            if (!sameField(other, slot, PHYSICAL) || !sameField(other, slot, DISPLAY_NAME)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameField(StatDescriptor other, int slot, int field) {
+        String a = get(slot, field);
+        String b = other.get(slot, field);
+        return ((a == null) ? "" : a).equals((b == null) ? "" : b); // A missing point is the same as an empty one
+    }
+
+    /**
+     * Writes the descriptor in a compact binary form: the name, a bitmask of present slots, then for every present slot a bitmask of the 
+     * fields that are set followed by the fields themselves.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int slotMask = 0;
+        for (int slot = 0; slot < PointSchema.SlotCount; slot++) {
+            if (present[slot]) {
+                slotMask |= 1 << slot;
+            }
+        }
+
+        out.writeUTF(name);
+        out.writeInt(slotMask);
+        for (int slot = 0; slot < PointSchema.SlotCount; slot++) {
+            if (!present[slot]) {
+                continue;
+            }
+
+            int fieldMask = 0;
+            for (int field = 0; field < FieldCount; field++) {
+                if (get(slot, field) != null) {
+                    fieldMask |= 1 << field;
+                }
+            }
+
+            out.writeByte(fieldMask);
+            for (int field = 0; field < FieldCount; field++) {
+                if (get(slot, field) != null) {
+                    out.writeUTF(get(slot, field));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a descriptor written by {@link #writeTo(DataOutput)}.
+     */
+    public static StatDescriptor readFrom(DataInput in) throws IOException {
+        StatDescriptor descriptor = new StatDescriptor(in.readUTF());
+        int slotMask = in.readInt();
+
+        for (int slot = 0; slot < PointSchema.SlotCount; slot++) {
+            if ((slotMask & (1 << slot)) == 0) {
+                continue;
+            }
+
+            int fieldMask = in.readUnsignedByte();
+            descriptor.markPresent(slot);
+            for (int field = 0; field < FieldCount; field++) {
+                if ((fieldMask & (1 << field)) != 0) {
+                    descriptor.set(slot, field, in.readUTF());
+                }
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * Estimates the memory held by the descriptor (object headers, arrays and the characters of every string); used to bound the 
+     * {@link StatCache}. Not exact, but consistent, which is all the cache needs.
+     * 
+     * @return Estimated size in bytes.
+     */
+    public int sizeInBytes() {
+        if (size == 0) {
+            int bytes = 32 + stringSize(name)                       // Descriptor and name
+                      + 16 + 4 * fields.length                      // Field array
+                      + 16 + present.length;                        // Present array
+            for (String field : fields) {
+                bytes += stringSize(field);
+            }
+            size = bytes;
+        }
+        return size;
+    }
+
+    private static int stringSize(String s) {
+        return (s == null) ? 0 : 40 + 2 * s.length();
+    }
+
+    /**
+     * Creates the system JSON for the stat, in the format expected by {@link com.deltacontrols.virtualstat.VirtualStat#loadFromJSON(String)}; 
+     * see {@link StatJSONWriter}.
+     * 
+     * @return The JSON string.
+     */
+    public String toJSONString() {
+        return StatJSONWriter.toJSONString(this);
+    }
+}
@@ -0,0 +1,252 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatJSONWriter.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.IOException;
+
+import com.deltacontrols.virtualstat.StatSnapshot;
+import com.deltacontrols.virtualstat.points.PointSchema;
+
+/**
+ * Streaming writer for the system JSON of a stat (the format read by {@link com.deltacontrols.virtualstat.VirtualStat#loadFromJSON(String)}):
+ * 
+ * <pre>
+ * {"Room 100":{"TEMP":{"$base":"Real","value":"21.5","physical":"//MainSite/100.AI1","displayName":"Room Temp"},...}}
+ * </pre>
+ * 
+ * Keys and values are written straight to the output, escaped as JSON strings, so the JSON always parses back to the same values. 
+ * {@link #toJSONString(StatSnapshot)} and {@link #toJSONString(StatDescriptor)} reuse one builder per thread.
+ */
+public final class StatJSONWriter {
+
+    private static final int MaxReusedCapacity = 16 * 1024; // Builders grown past this are not kept
+
+    private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128 * PointSchema.SlotCount);
+        }
+    };
+
+    private static final char[] Hex = "0123456789abcdef".toCharArray();
+    private static final char LineSeparator = 0x2028;
+    private static final char ParagraphSeparator = 0x2029;
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private final Appendable mOut;
+    private boolean mFirstPoint = true;
+    private boolean mFirstField = true;
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    public StatJSONWriter(Appendable out) {
+        mOut = out;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * @return The system JSON for every point of the snapshot.
+     */
+    public static String toJSONString(StatSnapshot stat) {
+        StringBuilder json = obtainBuilder();
+        try {
+            new StatJSONWriter(json).write(stat);
+        } 
+        catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return releaseBuilder(json);
+    }
+
+    /**
+     * @return The system JSON for the points present in the descriptor; properties that are not set are omitted.
+     */
+    public static String toJSONString(StatDescriptor stat) {
+        StringBuilder json = obtainBuilder();
+        try {
+            new StatJSONWriter(json).write(stat);
+        } 
+        catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return releaseBuilder(json);
+    }
+
+    /**
+     * Writes every point of the snapshot, in slot order.
+     */
+    public void write(StatSnapshot stat) throws IOException {
+        StatSnapshot.PointSnapshot point;
+
+        beginStat(stat.name);
+        for (PointSchema.Slot slot : PointSchema.Slots) {
+            point = stat.getPoint(slot.id);
+            beginPoint(slot.key);
+            // An unset data type or name (ie. after the reference was changed) is written as empty; the loader stops at a missing $base 
+            // and would drop the value.
+            field("$base", (point.dataType == null) ? "" : point.dataType);
+            field("value", point.value);
+            field("physical", point.ref);
+            field("displayName", (point.name == null) ? "" : point.name);
+            endPoint();
+        }
+        endStat();
+    }
+
+    /**
+     * Writes the points present in the descriptor, in slot order.
+     */
+    public void write(StatDescriptor stat) throws IOException {
+        beginStat(stat.name);
+        for (PointSchema.Slot slot : PointSchema.Slots) {
+            if (!stat.has(slot.id)) {
+                continue;
+            }
+
+            beginPoint(slot.key);
+            for (int field = 0; field < StatDescriptor.FieldCount; field++) {
+                field(StatDescriptor.keyOf(field), stat.get(slot.id, field));
+            }
+            endPoint();
+        }
+        endStat();
+    }
+
+    public void beginStat(String name) throws IOException {
+        mOut.append('{');
+        quote(mOut, (name == null) ? "" : name);
+        mOut.append(":{");
+        mFirstPoint = true;
+    }
+
+    public void beginPoint(String key) throws IOException {
+        if (!mFirstPoint) {
+            mOut.append(',');
+        }
+        mFirstPoint = false;
+        quote(mOut, key);
+        mOut.append(":{");
+        mFirstField = true;
+    }
+
+    /**
+     * Writes a point property; null values are omitted.
+     */
+    public void field(String key, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!mFirstField) {
+            mOut.append(',');
+        }
+        mFirstField = false;
+        quote(mOut, key);
+        mOut.append(':');
+        quote(mOut, value);
+    }
+
+    public void endPoint() throws IOException {
+        mOut.append('}');
+    }
+
+    public void endStat() throws IOException {
+        mOut.append("}}");
+    }
+
+    /**
+     * Writes the string as a JSON string literal: quotes, backslashes and control characters are escaped (as are U+2028 / U+2029, which 
+     * some JavaScript parsers treat as line breaks).
+     */
+    public static void quote(Appendable out, String s) throws IOException {
+        int length = s.length();
+        int start = 0; // Start of the current run of characters that need no escaping
+        char c;
+
+        out.append('"');
+        for (int i = 0; i < length; i++) {
+            c = s.charAt(i);
+            if ((c >= 0x20) && (c != '"') && (c != '\\') && (c != LineSeparator) && (c != ParagraphSeparator)) {
+                continue;
+            }
+
+            out.append(s, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u").append(Hex[(c >> 12) & 0xF]).append(Hex[(c >> 8) & 0xF]).append(Hex[(c >> 4) & 0xF]).append(Hex[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(s, start, length);
+        out.append('"');
+    }
+
+    private static StringBuilder obtainBuilder() {
+        StringBuilder json = sBuilder.get();
+        json.setLength(0);
+        return json;
+    }
+
+    private static String releaseBuilder(StringBuilder json) {
+        String result = json.toString();
+        if (json.capacity() > MaxReusedCapacity) {
+            sBuilder.set(new StringBuilder(128 * PointSchema.SlotCount));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,393 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatStore.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.points.PointSchema;
+
+/**
+ * Persists the current stat (the one shared between activities) without blocking the main thread. 
+ * 
+ * The current stat is kept in memory, so {@link #getCurrentStat()} never touches the disk once the store has loaded. Saves only update 
+ * the in memory stat and schedule a write on the {@link StoreThread}; saves made before the write runs are coalesced, and only the latest 
+ * stat is written. Writes are appended to a journal (one checksummed record per write, synced to disk) which is compacted, by writing 
+ * the latest stat to a temporary file and renaming it over the journal, once it holds {@link #CompactEvery} records. A torn record at the 
+ * end of the journal (ie. the process died mid write) fails its checksum and is ignored.
+ */
+public class StatStore {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "StatStore";
+
+    private static final int Magic = 0x56535354;   // "VSST"
+    private static final int Version = 1;           // Increase when the record layout changes; older journals are ignored
+    private static final byte PutRecord = 1;
+    private static final byte RemoveRecord = 2;
+    public static final int CompactEvery = 32;      // Records in the journal before it is compacted
+
+    private final File mJournal;
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+
+    // Guarded by this
+    private StatDescriptor mCurrent = null;         // Latest stat saved; null if removed (or never saved)
+    private boolean mWriteScheduled = false;
+    private long mSaves = 0;
+    private long mWrites = 0;
+
+    // Only used on the store thread
+    private StatDescriptor mWritten = null;         // Stat in the journal
+    private int mJournalRecords = 0;                // Records in the journal; -1 if the journal must be rewritten
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * Creates the store and starts loading the journal on the store thread.
+     * 
+     * @param journal File to keep the journal in.
+     */
+    public StatStore(File journal) {
+        mJournal = journal;
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                mLoaded.countDown();
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * @return The current stat, or null if there is none; waits for the store to load on first use.
+     */
+    public StatDescriptor getCurrentStat() {
+        awaitLoaded();
+        synchronized (this) {
+            return mCurrent;
+        }
+    }
+
+    /**
+     * Sets the current stat; written to disk on the store thread.
+     */
+    public void saveCurrentStat(StatDescriptor stat) {
+        awaitLoaded();
+        synchronized (this) {
+            mCurrent = stat;
+            mSaves++;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Clears the current stat (ie. on logout or when the server has no stats); written to disk on the store thread.
+     */
+    public void removeCurrentStat() {
+        saveCurrentStat(null);
+    }
+
+    public synchronized long getSaves() {
+        return mSaves;
+    }
+
+    public synchronized long getWrites() {
+        return mWrites;
+    }
+
+    private void scheduleWrite() {
+        if (mWriteScheduled) {
+            return; // The scheduled write will pick up the latest stat
+        }
+
+        mWriteScheduled = true;
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                StatDescriptor stat;
+                synchronized (StatStore.this) {
+                    mWriteScheduled = false;
+                    stat = mCurrent;
+                }
+                write(stat);
+            }
+        });
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoaded.await();
+                break;
+            } 
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Journal (store thread only)
+    // --------------------------------------------------------------------------------
+    /**
+     * Replays the journal; if there is no journal, imports the stat from the shared preferences used by older versions.
+     */
+    private void load() {
+        if (!mJournal.exists()) {
+            StatDescriptor stat = importSharedPreferences();
+            synchronized (this) {
+                mCurrent = stat;
+            }
+            mJournalRecords = -1;
+            if (stat != null) {
+                write(stat);
+                removeSharedPreferences(); // Only once it is safely in the journal
+            }
+            return;
+        }
+
+        DataInputStream in = null;
+        StatDescriptor stat = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournal)));
+            if ((in.readInt() != Magic) || (in.readInt() != Version) || (in.readInt() != PointSchema.SlotCount)) {
+                mJournalRecords = -1;
+                return;
+            }
+
+            byte[] record;
+            while ((record = readRecord(in)) != null) {
+                stat = (record[0] == PutRecord) ? StatDescriptor.readFrom(new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1))) : null;
+                mJournalRecords++;
+            }
+        } 
+        catch (IOException e) {
+            Log.e(TAG, "load: " + e.getMessage());
+            mJournalRecords = -1; // Torn or unreadable; rewrite it on the next write
+        } 
+        finally {
+            close(in);
+        }
+
+        mWritten = stat;
+        synchronized (this) {
+            mCurrent = stat;
+        }
+    }
+
+    /**
+     * @return The next record (type followed by payload), or null at the end of the journal.
+     * @throws IOException If the record is torn or fails its checksum.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } 
+        catch (EOFException e) {
+            return null;
+        }
+
+        if ((length < 1) || (length > 1024 * 1024)) {
+            throw new IOException("bad record length " + length);
+        }
+
+        byte[] record = new byte[length];
+        in.readFully(record);
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("bad record checksum");
+        }
+        return record;
+    }
+
+    /**
+     * Appends the stat to the journal, or rewrites the journal if it is due for compaction.
+     */
+    private void write(StatDescriptor stat) {
+        if ((stat == mWritten) || ((stat != null) && stat.sameAs(mWritten))) {
+            return; // Nothing changed
+        }
+
+        try {
+            byte[] record = toRecord(stat);
+            if ((mJournalRecords < 0) || (mJournalRecords >= CompactEvery)) {
+                compact(record);
+            }
+            else {
+                append(record);
+            }
+            mWritten = stat;
+            synchronized (this) {
+                mWrites++;
+            }
+        } 
+        catch (IOException e) {
+            Log.e(TAG, "write: " + e.getMessage());
+            mJournalRecords = -1;
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mJournal, true);
+            out.write(record);
+            out.getFD().sync();
+            mJournalRecords++;
+        } 
+        finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Writes a new journal holding only the given record to a temporary file, syncs it and renames it over the journal.
+     */
+    private void compact(byte[] record) throws IOException {
+        File temp = new File(mJournal.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+
+        try {
+            fileOut = new FileOutputStream(temp, false);
+            DataOutputStream out = new DataOutputStream(fileOut);
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeInt(PointSchema.SlotCount);
+            out.write(record);
+            out.flush();
+            fileOut.getFD().sync();
+            close(fileOut);
+            fileOut = null;
+
+            if (!temp.renameTo(mJournal)) {
+                throw new IOException("could not rename " + temp.getName());
+            }
+            mJournalRecords = 1;
+        } 
+        finally {
+            close(fileOut);
+        }
+    }
+
+    /**
+     * @return The framed record for the stat: length, type and payload, checksum.
+     */
+    private static byte[] toRecord(StatDescriptor stat) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte((stat == null) ? RemoveRecord : PutRecord);
+        if (stat != null) {
+            stat.writeTo(out);
+        }
+        out.flush();
+        byte[] record = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(record.length + 12);
+        DataOutputStream frame = new DataOutputStream(framed);
+        frame.writeInt(record.length);
+        frame.write(record);
+        frame.writeLong(crc.getValue());
+        frame.flush();
+        return framed.toByteArray();
+    }
+
+    /**
+     * Older versions kept the current stat as JSON in shared preferences; it is imported once (then removed).
+     */
+    private static StatDescriptor importSharedPreferences() {
+        Context ctx = App.getContext();
+        if (ctx == null) {
+            return null;
+        }
+
+        SharedPreferences sharedPreferences = ctx.getSharedPreferences(App.SHARED_PREF_ID, Context.MODE_PRIVATE);
+        String jsonStr = sharedPreferences.getString(App.SHARED_PREF_CURRENT_STAT_JSON, "");
+        if (jsonStr.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return StatCatalogParser.parseStat(jsonStr);
+        } 
+        catch (Exception e) {
+            Log.e(TAG, "importSharedPreferences: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void removeSharedPreferences() {
+        App.getContext().getSharedPreferences(App.SHARED_PREF_ID, Context.MODE_PRIVATE).edit().remove(App.SHARED_PREF_CURRENT_STAT_JSON).commit();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } 
+            catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * AdaptiveRefreshPolicy.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.HashMap;
+
+/**
+ * Refresh policy that adapts to what the stat is doing: 
+ *  1. After a write or an error, refresh at {@link #BaseInterval} (the fixed period VirtualStat has always used); after a change, at 
+ *     BaseInterval or faster when a point's observed change rate calls for it. 
+ *  2. While values are stable, back off exponentially: in the foreground up to {@link #MaxForegroundInterval}, which bounds how stale 
+ *     a shown value can get; in the background up to {@link #MaxBackgroundInterval}. 
+ * 
+ * Writes themselves are confirmed by {@link WriteVerifier}, not by the refresh.
+ */
+public class AdaptiveRefreshPolicy implements RefreshPolicy {
+
+    /**
+     * Change history for a single point.
+     */
+    private static class PointStats {
+        long lastChange = -1;       // Time of the last observed change; -1 if never changed
+        double meanInterval = -1;   // Smoothed time between changes; -1 until two changes have been seen
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public static final long MinInterval = 2000;
+    public static final long BaseInterval = 10000;
+    public static final long MaxForegroundInterval = 30000;    // Staleness bound: longest a shown stat goes without a refresh
+    public static final long MaxBackgroundInterval = 5 * 60000;
+
+    private static final double Smoothing = 0.3; // Weight given to the newest change interval
+
+    private final HashMap<String, PointStats> mPointStats = new HashMap<String, PointStats>();
+    private long mStableInterval = BaseInterval;
+    private boolean mChangedThisRefresh = false;
+    private boolean mErrorPending = false;
+    private boolean mBackground = false;
+
+    // --------------------------------------------------------------------------------
+    // RefreshPolicy
+    // --------------------------------------------------------------------------------
+    @Override
+    public void onWrite(long now) {
+        mStableInterval = BaseInterval; // User is active; stop backing off
+    }
+
+    @Override
+    public void onPointValue(String ref, boolean changed, long now) {
+        if (!changed) {
+            return;
+        }
+
+        PointStats stats = mPointStats.get(ref);
+        if (stats == null) {
+            stats = new PointStats();
+            mPointStats.put(ref, stats);
+        }
+
+        if (stats.lastChange >= 0) {
+            long interval = now - stats.lastChange;
+            stats.meanInterval = (stats.meanInterval < 0) ? interval : (Smoothing * interval) + ((1 - Smoothing) * stats.meanInterval);
+        }
+        stats.lastChange = now;
+        mChangedThisRefresh = true;
+    }
+
+    @Override
+    public void onError(long now) {
+        mStableInterval = BaseInterval;
+        mChangedThisRefresh = false;
+        mErrorPending = true;
+    }
+
+    @Override
+    public void setBackground(boolean background) {
+        mBackground = background;
+    }
+
+    @Override
+    public long nextDelay(long now) {
+        long delay;
+
+        if (mErrorPending) {
+            // Retry failed refreshes at the base interval.
+            delay = BaseInterval;
+            mErrorPending = false;
+        }
+        else {
+            if (mChangedThisRefresh) {
+                mStableInterval = changeRateInterval();
+            }
+            else {
+                mStableInterval = Math.min(mStableInterval * 2, mBackground ? MaxBackgroundInterval : MaxForegroundInterval);
+            }
+            mChangedThisRefresh = false;
+            delay = mStableInterval;
+        }
+
+        return delay;
+    }
+
+    /**
+     * @return Half of the fastest point's mean change interval (so changes are seen within about half a change period), clamped to 
+     *         [MinInterval, BaseInterval].
+     */
+    private long changeRateInterval() {
+        long interval = BaseInterval;
+
+        for (PointStats stats : mPointStats.values()) {
+            if (stats.meanInterval > 0) {
+                interval = Math.min(interval, (long) (stats.meanInterval / 2));
+            }
+        }
+
+        return Math.max(interval, MinInterval);
+    }
+}
@@ -0,0 +1,224 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * CircuitBreaker.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.App;
+
+/**
+ * Application wide circuit breaker for eWEB. When a stat has used up its retry budget it trips (opens) the breaker; while open, stats do 
+ * not poll at all. Once the open period has passed, the breaker probes the server with a single cheap request (a getMulti of one reference); 
+ * if the probe succeeds the breaker closes and every waiting stat is told to resume, otherwise it re-opens for a longer (jittered) period.
+ * 
+ * Scheduling is done on the main looper.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Implemented by anything waiting for the breaker to close.
+     */
+    public interface Listener {
+        public void onCircuitClosed();
+    }
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    };
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "CircuitBreaker";
+
+    public static final long BaseOpenPeriod = 15000;   // First open period (ms); doubles with every failed probe
+    public static final long MaxOpenPeriod = 300000;   // Upper limit (ms) on the open period
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final IdentityHashMap<Listener, Boolean> mListeners = new IdentityHashMap<Listener, Boolean>();
+
+    private State mState = State.CLOSED;
+    private int mFailedProbes;
+    private long mOpenUntil;                    // Uptime (ms) at which the next probe is made
+    private BACnetObjectValueList mProbe;       // Request used to probe the server
+
+    private Runnable mProbeTask = new Runnable() {
+        @Override
+        public void run() {
+            probe();
+        }
+    };
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return True if requests may be made (ie. the breaker is closed).
+     */
+    public synchronized boolean isClosed() {
+        return mState == State.CLOSED;
+    }
+
+    /**
+     * Opens the breaker (if it is not already open) and schedules a probe.
+     * 
+     * @param probe A request for a single reference that can be used to probe the server.
+     */
+    public synchronized void trip(BACnetObjectValueList probe) {
+        if ((probe != null) && !probe.isEmpty()) {
+            mProbe = probe;
+        }
+
+        if (mState != State.CLOSED) {
+            return;
+        }
+
+        Log.i(TAG, "Circuit opened");
+        open();
+    }
+
+    /**
+     * Waits for the breaker to close; the listener is called (once) when it does. Does nothing if the breaker is already closed.
+     */
+    public synchronized void addListener(Listener listener) {
+        if (mState != State.CLOSED) {
+            mListeners.put(listener, Boolean.TRUE);
+        }
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Closes the breaker without waiting for a probe (ie. a request made outside the breaker succeeded).
+     */
+    public void onSuccess() {
+        ArrayList<Listener> listeners;
+
+        synchronized (this) {
+            if (mState == State.CLOSED) {
+                return;
+            }
+
+            Log.i(TAG, "Circuit closed");
+            mHandler.removeCallbacks(mProbeTask);
+            mState = State.CLOSED;
+            mFailedProbes = 0;
+            listeners = new ArrayList<Listener>(mListeners.keySet());
+            mListeners.clear();
+        }
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onCircuitClosed();
+            } 
+            catch (Exception e) {
+                Log.e(TAG, "onCircuitClosed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void open() {
+        long period = RetryPolicy.jitter(RetryPolicy.backoff(BaseOpenPeriod, MaxOpenPeriod, mFailedProbes));
+
+        mState = State.OPEN;
+        mOpenUntil = SystemClock.uptimeMillis() + period;
+        mHandler.removeCallbacks(mProbeTask);
+        mHandler.postDelayed(mProbeTask, period);
+    }
+
+    private void probe() {
+        BACnetObjectValueList probe;
+
+        synchronized (this) {
+            if ((mState != State.OPEN) || (SystemClock.uptimeMillis() < mOpenUntil)) {
+                return;
+            }
+
+            probe = mProbe;
+            if (probe == null) {
+                onSuccessLater(); // Nothing to probe with; let the stats try.
+                return;
+            }
+            mState = State.HALF_OPEN;
+        }
+
+        try {
+            App.getEwebConnection().getMulti(probe, new GenericCallback<BACnetObjectValueList>() {
+                @Override
+                public void onCallback(BACnetObjectValueList result) {
+                    onProbeResult(result);
+                }
+            });
+        } 
+        catch (Exception e) {
+            Log.e(TAG, "probe: " + e.getMessage());
+            onProbeResult(null);
+        }
+    }
+
+    private void onProbeResult(BACnetObjectValueList result) {
+        if ((result != null) && (result.statusCode == 200)) {
+            onSuccess();
+            return;
+        }
+
+        synchronized (this) {
+            if (mState == State.HALF_OPEN) {
+                mFailedProbes++;
+                open();
+            }
+        }
+    }
+
+    private void onSuccessLater() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onSuccess();
+            }
+        });
+    }
+}
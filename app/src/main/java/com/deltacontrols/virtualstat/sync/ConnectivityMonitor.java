@@ -0,0 +1,287 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * ConnectivityMonitor.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+
+/**
+ * Watches the network and lets the sync loop know as soon as the server can be reached again; recovery after an outage (or after roaming 
+ * between access points) no longer waits for the user to tap the alert.
+ * 
+ * When the network comes back up the eWEB session is re-validated first; only once that succeeds are the listeners told to reconnect. 
+ * Network-up events that arrive while a validation is out are folded into one more validation once it completes. A failed validation 
+ * (ie. the network is up but the server or the login is not ready yet) is retried with backoff while the network stays up.
+ * 
+ * Where the events come from, how the session is validated and how retries are delayed are all plugged in, so the monitor does not depend 
+ * on Android and can be driven by a fake source on the JVM.
+ */
+public class ConnectivityMonitor {
+
+    /**
+     * Source of network events; see {@link AndroidConnectivitySource}.
+     */
+    public interface ConnectivitySource {
+        /**
+         * Starts delivering events to the callback.
+         */
+        public void start(Callback callback);
+
+        public void stop();
+
+        /**
+         * @return True if a network is currently connected.
+         */
+        public boolean isConnected();
+
+        public interface Callback {
+            public void onConnectivityChanged(boolean connected);
+        }
+    }
+
+    /**
+     * Re-validates the server session; see {@link EwebSessionValidator}.
+     */
+    public interface SessionValidator {
+        /**
+         * @param callback Called with true if the session is usable.
+         */
+        public void validate(GenericCallback<Boolean> callback);
+    }
+
+    /**
+     * Runs delayed tasks (validation retries); see {@link HandlerScheduler}.
+     */
+    public interface Scheduler {
+        public void schedule(Runnable task, long delayMs);
+
+        public void cancel(Runnable task);
+    }
+
+    /**
+     * Implemented by anything that wants to resume once the connection is back.
+     */
+    public interface Listener {
+        public void onReconnected();
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final int MaxRetries = 5;
+    private static final long RetryBaseDelay = 2000;  // ms
+    private static final long RetryMaxDelay = 60000;  // ms
+
+    private final ConnectivitySource mSource;
+    private final SessionValidator mValidator;
+    private final Scheduler mScheduler;
+    private final RetryPolicy mRetry = new RetryPolicy(MaxRetries, RetryBaseDelay, RetryMaxDelay);
+    private final IdentityHashMap<Listener, Boolean> mListeners = new IdentityHashMap<Listener, Boolean>();
+
+    private boolean mStarted;
+    private boolean mConnected;
+    private boolean mValidating;
+    private boolean mRevalidate; // Network came up again while validating
+    private boolean mRetryPending; // A failed validation is waiting to be retried (counts as validating)
+
+    public final AtomicLong reconnects = new AtomicLong();        // Validated reconnects
+    public final AtomicLong failedValidations = new AtomicLong();
+    public final AtomicLong retries = new AtomicLong();           // Validations retried after a failure
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    public ConnectivityMonitor(ConnectivitySource source, SessionValidator validator, Scheduler scheduler) {
+        mSource = source;
+        mValidator = validator;
+        mScheduler = scheduler;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Starts listening for network events; the current state is taken as the starting point (ie. does not count as a change).
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mConnected = mSource.isConnected();
+        mSource.start(mSourceCallback);
+    }
+
+    public synchronized void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mSource.stop();
+        cancelRetry();
+    }
+
+    public synchronized boolean isConnected() {
+        return mConnected;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        mListeners.put(listener, Boolean.TRUE);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private ConnectivitySource.Callback mSourceCallback = new ConnectivitySource.Callback() {
+        @Override
+        public void onConnectivityChanged(boolean connected) {
+            boolean validate = false;
+
+            synchronized (ConnectivityMonitor.this) {
+                boolean wasConnected = mConnected;
+                mConnected = connected;
+
+                if (!connected) {
+                    cancelRetry(); // Validated again from scratch once the network is back
+                }
+
+                if (!mStarted || !connected || wasConnected) {
+                    return;
+                }
+
+                if (mValidating) {
+                    mRevalidate = true;
+                }
+                else {
+                    mValidating = true;
+                    validate = true;
+                }
+            }
+
+            if (validate) {
+                validate();
+            }
+        }
+    };
+
+    private void validate() {
+        mValidator.validate(new GenericCallback<Boolean>() {
+            @Override
+            public void onCallback(Boolean valid) {
+                onValidated((valid != null) && valid);
+            }
+        });
+    }
+
+    private Runnable mRetryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ConnectivityMonitor.this) {
+                if (!mRetryPending) {
+                    return;
+                }
+                mRetryPending = false;
+                mRevalidate = false; // This validation covers any network-up events since the failure
+            }
+            validate();
+        }
+    };
+
+    /**
+     * Drops a pending retry; must be called holding the lock.
+     */
+    private void cancelRetry() {
+        if (mRetryPending) {
+            mRetryPending = false;
+            mValidating = false;
+            mScheduler.cancel(mRetryTask);
+        }
+        mRetry.onSuccess();
+    }
+
+    private void onValidated(boolean valid) {
+        ArrayList<Listener> listeners = null;
+        boolean again = false;
+        long retryDelay = -1;
+
+        synchronized (this) {
+            if (mRevalidate && mConnected) {
+                // Network changed again while validating; the result may already be out of date.
+                mRevalidate = false;
+                again = true;
+            }
+            else {
+                mRevalidate = false;
+                mValidating = false;
+
+                if (valid) {
+                    mRetry.onSuccess();
+                    reconnects.incrementAndGet();
+                    listeners = new ArrayList<Listener>(mListeners.keySet());
+                }
+                else {
+                    failedValidations.incrementAndGet();
+
+                    // Retry while the network stays up; once the budget is used up wait for the next network change.
+                    retryDelay = (mStarted && mConnected) ? mRetry.onFailure() : -1;
+                    if (retryDelay >= 0) {
+                        retries.incrementAndGet();
+                        mValidating = true;
+                        mRetryPending = true;
+                    }
+                    else {
+                        mRetry.onSuccess();
+                    }
+                }
+            }
+        }
+
+        if (again) {
+            validate();
+            return;
+        }
+
+        if (retryDelay >= 0) {
+            mScheduler.schedule(mRetryTask, retryDelay);
+        }
+
+        if (listeners != null) {
+            for (Listener listener : listeners) {
+                listener.onReconnected();
+            }
+        }
+    }
+}
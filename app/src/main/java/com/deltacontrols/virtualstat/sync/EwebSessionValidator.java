@@ -0,0 +1,88 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * EwebSessionValidator.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.api.EwebConnection;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.LoginInfo;
+
+/**
+ * {@link ConnectivityMonitor.SessionValidator} that logs in to eWEB again with the stored login; the session from before the outage may 
+ * have expired (or been tied to the old address). Like the login screen, basic authentication is tried first and the older authentication 
+ * if the server rejects it.
+ */
+public class EwebSessionValidator implements ConnectivityMonitor.SessionValidator {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "EwebSessionValidator";
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    @Override
+    public void validate(final GenericCallback<Boolean> callback) {
+        final LoginInfo login = LoginInfo.getStoredLogin();
+        final EwebConnection eweb = App.getEwebConnection();
+
+        if (!LoginInfo.isValid(login)) {
+            callback.onCallback(false);
+            return;
+        }
+
+        eweb.connect(login.eWebURL, login.userName, login.password, new GenericCallback<FetchJSON.Result>() {
+            @Override
+            public void onCallback(FetchJSON.Result result) {
+                if (eweb.isConnected()) {
+                    callback.onCallback(true);
+                }
+                else if ((result != null) && ((result.statusCode == 400) || (result.statusCode == 401))) {
+                    eweb.connect(login.eWebURL, login.userName, login.password, new GenericCallback<FetchJSON.Result>() {
+                        @Override
+                        public void onCallback(FetchJSON.Result result) {
+                            callback.onCallback(eweb.isConnected());
+                        }
+                    });
+                }
+                else {
+                    Log.i(TAG, "Session not validated: " + ((result != null) ? result.statusCode : -1));
+                    callback.onCallback(false);
+                }
+            }
+        }, true);
+    }
+}
@@ -0,0 +1,484 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * OfflineWriteQueue.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.points.PointValue;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+import com.deltacontrols.virtualstat.store.StoreThread;
+
+/**
+ * Application wide, file backed queue of user writes that could not be sent because the connection to eWEB was lost. Writes are keyed 
+ * by reference (latest value wins) and every change is appended to a journal file which is synced to disk, so pending writes survive 
+ * process death; the journal is compacted once it holds mostly superseded records. All journal I/O runs on the {@link StoreThread}, in 
+ * the order the changes were made, so queueing a write never blocks the caller.
+ * 
+ * {@link #replay()} sends all pending writes as a single putMulti once the connection is back. Before sending, the current server value 
+ * of every queued reference is read; a write is only replayed if the server still has the value the user changed from (ie. nobody else 
+ * has changed the point in the meantime), otherwise the server value wins and the write is dropped. Values are compared by meaning 
+ * rather than text (ie. "21" and "21.0" are the same analog value).
+ */
+public class OfflineWriteQueue {
+
+    /**
+     * A single pending write.
+     */
+    public static class Entry {
+        public final String ref;        // Reference as sent to putMulti
+        public final String value;      // Value the user set
+        public final String baseValue;  // Last value known from the server when the user made the change
+        public final String dataType;
+        public final long createdAt;    // Wall clock time (ms) of the change; wall clock so age survives a reboot
+
+        public Entry(String ref, String value, String baseValue, String dataType, long createdAt) {
+            this.ref = ref;
+            this.value = value;
+            this.baseValue = baseValue;
+            this.dataType = dataType;
+            this.createdAt = createdAt;
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "OfflineWriteQueue";
+
+    public static final long MaxPendingAge = 60 * 60 * 1000;   // Writes older than this (ms) are not replayed
+    private static final int CompactSlack = 32;                 // Superseded journal records tolerated before compacting
+
+    private static final String PutRecord = "P";
+    private static final String ClearRecord = "C";
+
+    private final File mJournal;
+    private final LinkedHashMap<String, Entry> mPending = new LinkedHashMap<String, Entry>(); // Keyed by lower case reference
+    private int mJournalRecords;
+    private boolean mLoaded;
+    private boolean mReplaying;
+
+    public final AtomicLong replayed = new AtomicLong();        // Writes successfully replayed
+    public final AtomicLong conflicts = new AtomicLong();       // Writes dropped because the server value changed
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * The journal is loaded on the store thread; writes queued before it is loaded win over the ones in the journal.
+     */
+    public OfflineWriteQueue(File journal) {
+        mJournal = journal;
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Queues a write; replaces any pending write for the same reference.
+     */
+    public synchronized void enqueue(Entry entry) {
+        mPending.put(entry.ref.toLowerCase(), entry);
+        append(PutRecord, entry.ref, entry.value, entry.baseValue, entry.dataType, Long.toString(entry.createdAt));
+    }
+
+    /**
+     * Drops the pending write for the reference, if any; called once a newer write to it has been sent directly, so a later replay 
+     * cannot overwrite the newer value with the queued one.
+     */
+    public synchronized void supersede(String ref) {
+        Entry entry = mPending.get(ref.toLowerCase());
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * @return Number of pending writes.
+     */
+    public synchronized int size() {
+        return mPending.size();
+    }
+
+    /**
+     * @return The pending write for the reference, or null if there is none.
+     */
+    public synchronized Entry get(String ref) {
+        return mPending.get(ref.toLowerCase());
+    }
+
+    /**
+     * Sends all pending writes to eWEB as a single putMulti, after checking each against the server's current value. Does nothing if 
+     * the queue is empty, the journal has not been loaded yet or a replay is already in progress. Writes that fail to send stay queued for the next replay.
+     */
+    public void replay() {
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        BACnetObjectValueList request = new BACnetObjectValueList();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (!mLoaded || mReplaying || mPending.isEmpty()) {
+                return;
+            }
+
+            for (Entry entry : new ArrayList<Entry>(mPending.values())) {
+                if (now - entry.createdAt > MaxPendingAge) {
+                    Log.i(TAG, "Dropping expired write: " + entry.ref);
+                    remove(entry);
+                    continue;
+                }
+
+                BACnetObjectValue obj = new BACnetObjectValue(entry.ref);
+                obj.via.property = "present-value";
+                request.put(entry.ref, obj);
+                entries.add(entry);
+            }
+
+            if (entries.isEmpty()) {
+                return;
+            }
+            mReplaying = true;
+        }
+
+        try {
+            App.getEwebConnection().getMulti(request, new GenericCallback<BACnetObjectValueList>() {
+                @Override
+                public void onCallback(BACnetObjectValueList result) {
+                    onCurrentValues(entries, result);
+                }
+            });
+        } 
+        catch (Exception e) {
+            Log.e(TAG, "replay: " + e.getMessage());
+            finishReplay();
+        }
+    }
+
+    /**
+     * Conflict check; builds the single putMulti out of the writes the server has not changed underneath.
+     */
+    void onCurrentValues(ArrayList<Entry> entries, BACnetObjectValueList current) {
+        final ArrayList<Entry> sent = new ArrayList<Entry>();
+        BACnetObjectValueList batch = new BACnetObjectValueList();
+
+        if (current.statusCode != 200) {
+            finishReplay(); // Still offline; keep everything queued.
+            return;
+        }
+
+        synchronized (this) {
+            for (Entry entry : entries) {
+                BACnetObjectValue obj = current.get(entry.ref.toLowerCase());
+                String serverValue = (obj != null) ? obj.value : null;
+
+                if (serverValue == null) {
+                    continue; // Not returned; try again next replay.
+                }
+
+                VirtualStatPoint.Type type = VirtualStatPoint.getType(entry.ref);
+                PointValue server = PointValue.parse(serverValue, type);
+
+                if (server.sameAs(PointValue.parse(entry.value, type))) {
+                    remove(entry); // Already applied.
+                }
+                else if ((entry.baseValue != null) && !server.sameAs(PointValue.parse(entry.baseValue, type))) {
+                    Log.i(TAG, "Conflict, server value wins: " + entry.ref);
+                    conflicts.incrementAndGet();
+                    remove(entry);
+                }
+                else {
+                    BACnetObjectValue put = new BACnetObjectValue(entry.ref);
+                    put.via.property = "present-value";
+                    put.value = entry.value;
+                    put.dataType = entry.dataType;
+                    batch.put(entry.ref, put);
+                    sent.add(entry);
+                }
+            }
+        }
+
+        if (batch.isEmpty()) {
+            finishReplay();
+            return;
+        }
+
+        try {
+            App.getEwebConnection().putMulti(batch, new GenericCallback<BACnetObjectValueList>() {
+                @Override
+                public void onCallback(BACnetObjectValueList result) {
+                    onReplayResult(sent, result);
+                }
+            });
+        } 
+        catch (Exception e) {
+            Log.e(TAG, "replay put: " + e.getMessage());
+            finishReplay();
+        }
+    }
+
+    private void onReplayResult(ArrayList<Entry> sent, BACnetObjectValueList result) {
+        synchronized (this) {
+            if (result.statusCode == 200) {
+                for (Entry entry : sent) {
+                    BACnetObjectValue obj = result.get(entry.ref);
+                    if ((obj != null) && (obj.errorText != null)) {
+                        Log.i(TAG, "Replay rejected: " + entry.ref + " " + obj.errorText); // Will never succeed; drop it.
+                    }
+                    else {
+                        replayed.incrementAndGet();
+                    }
+                    remove(entry);
+                }
+            }
+        }
+        finishReplay();
+    }
+
+    private synchronized void finishReplay() {
+        mReplaying = false;
+    }
+
+    /**
+     * Removes the entry, unless it has been superseded by a newer write to the same reference in the meantime.
+     */
+    private void remove(Entry entry) {
+        String key = entry.ref.toLowerCase();
+        if (mPending.get(key) == entry) {
+            mPending.remove(key);
+            append(ClearRecord, entry.ref);
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Journal
+    // --------------------------------------------------------------------------------
+    /**
+     * Loads the journal on the store thread; later records win. Entries queued since the queue was created are newer than anything in 
+     * the journal and are kept. Compacts the journal if it contains superseded records.
+     */
+    private void load() {
+        LinkedHashMap<String, Entry> loaded = new LinkedHashMap<String, Entry>();
+        int records = 0;
+
+        if (mJournal.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournal), "UTF-8"));
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    records++;
+
+                    try {
+                        if (fields[0].equals(PutRecord) && (fields.length == 6)) {
+                            Entry entry = new Entry(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]), unescape(fields[4]), Long.parseLong(fields[5]));
+                            loaded.put(entry.ref.toLowerCase(), entry);
+                        }
+                        else if (fields[0].equals(ClearRecord) && (fields.length == 2)) {
+                            loaded.remove(unescape(fields[1]).toLowerCase());
+                        }
+                    } 
+                    catch (NumberFormatException e) {
+                        // Torn record (ie. process died mid write); skip it.
+                    }
+                }
+            } 
+            catch (IOException e) {
+                Log.e(TAG, "load: " + e.getMessage());
+            } 
+            finally {
+                close(reader);
+            }
+        }
+
+        synchronized (this) {
+            for (Entry entry : loaded.values()) {
+                String key = entry.ref.toLowerCase();
+                if (!mPending.containsKey(key)) {
+                    mPending.put(key, entry);
+                }
+            }
+            mJournalRecords += records;
+            mLoaded = true;
+
+            if (mJournalRecords > mPending.size()) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the journal, compacting it instead if it has grown too much. The record is written and synced to disk on the 
+     * store thread; must be called holding the lock.
+     */
+    private void append(String... fields) {
+        if (mJournalRecords > mPending.size() + CompactSlack) {
+            compact();
+            return; // Compaction writes the current state, which includes this record.
+        }
+
+        final String record = toRecord(fields);
+        mJournalRecords++;
+
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = new FileOutputStream(mJournal, true);
+                    Writer writer = new OutputStreamWriter(out, "UTF-8");
+                    writer.write(record);
+                    writer.flush();
+                    out.getFD().sync();
+                } 
+                catch (IOException e) {
+                    Log.e(TAG, "append: " + e.getMessage());
+                } 
+                finally {
+                    close(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the journal with only the pending writes; written to a temporary file first so a crash cannot lose the journal. The 
+     * pending writes are captured now and written on the store thread; must be called holding the lock.
+     */
+    private void compact() {
+        final StringBuilder records = new StringBuilder(64 * mPending.size());
+        for (Entry entry : mPending.values()) {
+            records.append(toRecord(PutRecord, entry.ref, entry.value, entry.baseValue, entry.dataType, Long.toString(entry.createdAt)));
+        }
+        mJournalRecords = mPending.size();
+
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                File temp = new File(mJournal.getPath() + ".tmp");
+                FileOutputStream out = null;
+
+                try {
+                    out = new FileOutputStream(temp, false);
+                    Writer writer = new OutputStreamWriter(out, "UTF-8");
+                    writer.write(records.toString());
+                    writer.flush();
+                    out.getFD().sync();
+                    close(out);
+                    out = null;
+
+                    if (!temp.renameTo(mJournal)) {
+                        Log.e(TAG, "compact: rename failed");
+                    }
+                } 
+                catch (IOException e) {
+                    Log.e(TAG, "compact: " + e.getMessage());
+                } 
+                finally {
+                    close(out);
+                }
+            }
+        });
+    }
+
+    private static String toRecord(String... fields) {
+        StringBuilder record = new StringBuilder(64);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                record.append('\t');
+            }
+            record.append(escape(fields[i]));
+        }
+        return record.append('\n').toString();
+    }
+
+    /**
+     * Escapes tabs, new lines and backslashes; null is written as a lone \0.
+     */
+    private static String escape(String str) {
+        if (str == null) {
+            return "\\0";
+        }
+        return str.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String str) {
+        if (str.equals("\\0")) {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if ((c == '\\') && (i + 1 < str.length())) {
+                c = str.charAt(++i);
+                c = (c == 't') ? '\t' : (c == 'n') ? '\n' : c;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } 
+            catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
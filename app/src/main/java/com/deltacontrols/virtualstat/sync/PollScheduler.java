@@ -0,0 +1,290 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * PollScheduler.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.App;
+
+/**
+ * Application wide poll scheduler. Instead of every VirtualStat issuing its own getMulti, stats subscribe here and the scheduler 
+ * reads all due subscribers together: references are unioned and de-duplicated across subscribers, sent in chunks of at most 
+ * {@link #MaxRefsPerRequest} references, and the results are routed back to each subscriber once all of its chunks have returned. 
+ * This reduces the number of requests per refresh from one per stat to one per chunk.
+ * 
+ * All scheduling is done on the main looper (as the per stat refresh handlers were); results are delivered on the thread eWEB calls back on.
+ */
+public class PollScheduler {
+
+    /**
+     * Implemented by anything that wants its references polled.
+     */
+    public interface Subscriber {
+        /**
+         * Called when the subscriber is about to be polled.
+         * 
+         * @return The references to read; null or empty if there is nothing to read.
+         */
+        public BACnetObjectValueList onPoll();
+
+        /**
+         * Called once all chunks containing the subscriber's references have returned. If any of those chunks failed, the failed result 
+         * (with its statusCode) is passed in; otherwise the result contains (at least) every reference returned by onPoll.
+         */
+        public void onPollResult(BACnetObjectValueList result);
+    }
+
+    /**
+     * Scheduling state for a single subscriber.
+     */
+    private static class Entry {
+        final Subscriber subscriber;
+        long nextDue = -1;                      // Uptime (ms) of next poll; -1 if not scheduled.
+        boolean inFlight;                       // True while a poll containing the subscriber is out.
+        int pendingChunks;                      // Chunks still to return for the current poll.
+        BACnetObjectValueList failedResult;     // First failed chunk result for the current poll (if any).
+
+        Entry(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+    }
+
+    /**
+     * A single getMulti request and the subscribers that have references in it.
+     */
+    private static class Chunk {
+        final BACnetObjectValueList request = new BACnetObjectValueList();
+        final HashSet<Entry> entries = new HashSet<Entry>();
+        boolean returned;                       // True once the chunk's result has been handled.
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "PollScheduler";
+
+    public static final int MaxRefsPerRequest = 64;     // Max references sent in a single getMulti
+    public static final long PiggybackWindow = 1000;    // Subscribers due within this window (ms) are polled with the current tick
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final IdentityHashMap<Subscriber, Entry> mEntries = new IdentityHashMap<Subscriber, Entry>();
+
+    private Runnable mTickTask = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Schedules the subscriber to be polled after delayMs; replaces any previously scheduled poll for the subscriber. If a poll containing 
+     * the subscriber is already out, the new poll is made once that poll returns.
+     */
+    public synchronized void schedule(Subscriber subscriber, long delayMs) {
+        Entry entry = mEntries.get(subscriber);
+        if (entry == null) {
+            entry = new Entry(subscriber);
+            mEntries.put(subscriber, entry);
+        }
+
+        entry.nextDue = SystemClock.uptimeMillis() + delayMs;
+        rearm();
+    }
+
+    /**
+     * Cancels any scheduled poll for the subscriber. A poll that is already out will still be delivered.
+     */
+    public synchronized void cancel(Subscriber subscriber) {
+        Entry entry = mEntries.get(subscriber);
+        if (entry == null) {
+            return;
+        }
+
+        entry.nextDue = -1;
+        if (!entry.inFlight) {
+            mEntries.remove(subscriber);
+        }
+        rearm();
+    }
+
+    /**
+     * Re-arms the tick for the earliest scheduled subscriber.
+     */
+    private void rearm() {
+        long earliest = Long.MAX_VALUE;
+
+        for (Entry entry : mEntries.values()) {
+            if ((entry.nextDue >= 0) && !entry.inFlight && (entry.nextDue < earliest)) {
+                earliest = entry.nextDue;
+            }
+        }
+
+        mHandler.removeCallbacks(mTickTask);
+        if (earliest != Long.MAX_VALUE) {
+            mHandler.postDelayed(mTickTask, Math.max(0, earliest - SystemClock.uptimeMillis()));
+        }
+    }
+
+    /**
+     * Polls every due subscriber; references are de-duplicated (case insensitive, as eWEB returns lower case references) and chunked.
+     */
+    private void poll() {
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        LinkedHashMap<String, Chunk> chunkByRef = new LinkedHashMap<String, Chunk>();
+        final BACnetObjectValueList merged = new BACnetObjectValueList();
+        Chunk current = null;
+
+        synchronized (this) {
+            long horizon = SystemClock.uptimeMillis() + PiggybackWindow;
+
+            for (Entry entry : mEntries.values()) {
+                if ((entry.nextDue < 0) || entry.inFlight || (entry.nextDue > horizon)) {
+                    continue;
+                }
+
+                entry.nextDue = -1;
+                BACnetObjectValueList refs = entry.subscriber.onPoll();
+                if ((refs == null) || refs.isEmpty()) {
+                    continue;
+                }
+
+                HashSet<Chunk> entryChunks = new HashSet<Chunk>();
+                for (Map.Entry<String, BACnetObjectValue> ref : refs.entrySet()) {
+                    String key = ref.getKey().toLowerCase();
+                    Chunk chunk = chunkByRef.get(key);
+
+                    if (chunk == null) {
+                        if ((current == null) || (current.request.size() >= MaxRefsPerRequest)) {
+                            current = new Chunk();
+                            chunks.add(current);
+                        }
+                        chunk = current;
+                        chunk.request.put(ref.getKey(), ref.getValue());
+                        chunkByRef.put(key, chunk);
+                    }
+
+                    chunk.entries.add(entry);
+                    entryChunks.add(chunk);
+                }
+
+                entry.inFlight = true;
+                entry.pendingChunks = entryChunks.size();
+                entry.failedResult = null;
+            }
+
+            rearm();
+        }
+
+        merged.statusCode = 200;
+        for (final Chunk chunk : chunks) {
+            final long sentAt = SystemClock.uptimeMillis();
+            try {
+                App.getEwebConnection().getMulti(chunk.request, new GenericCallback<BACnetObjectValueList>() {
+                    @Override
+                    public void onCallback(BACnetObjectValueList result) {
+                        App.getSyncMetrics().readLatency.record(SystemClock.uptimeMillis() - sentAt);
+                        onChunkResult(chunk, result, merged);
+                    }
+                });
+            } 
+            catch (Exception e) {
+                Log.e(TAG, "getMulti: " + e.getMessage());
+
+                // The request was not sent; fail it so its subscribers are not left in flight (and never polled again).
+                BACnetObjectValueList failed = new BACnetObjectValueList();
+                failed.statusCode = 0;
+                onChunkResult(chunk, failed, merged);
+            }
+        }
+    }
+
+    private void onChunkResult(Chunk chunk, BACnetObjectValueList result, BACnetObjectValueList merged) {
+        ArrayList<Entry> complete = new ArrayList<Entry>();
+
+        synchronized (this) {
+            if (chunk.returned) {
+                return; // Already failed (getMulti threw after calling back)
+            }
+            chunk.returned = true;
+
+            if (result.statusCode == 200) {
+                merged.putAll(result);
+            }
+
+            for (Entry entry : chunk.entries) {
+                if ((result.statusCode != 200) && (entry.failedResult == null)) {
+                    entry.failedResult = result;
+                }
+
+                if (--entry.pendingChunks == 0) {
+                    entry.inFlight = false;
+                    complete.add(entry);
+                }
+            }
+        }
+
+        // Deliver outside of the lock; subscribers typically re-schedule themselves from onPollResult.
+        for (Entry entry : complete) {
+            try {
+                entry.subscriber.onPollResult((entry.failedResult != null) ? entry.failedResult : merged);
+            } 
+            catch (Exception e) {
+                Log.e(TAG, "onPollResult: " + e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            for (Entry entry : complete) {
+                entry.failedResult = null;
+                if (entry.nextDue < 0) {
+                    mEntries.remove(entry.subscriber);
+                }
+            }
+            rearm();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * RefreshPolicy.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+/**
+ * Decides how long a VirtualStat waits between data refreshes. The stat reports what it sees (user writes, refreshed values, errors) and 
+ * asks the policy for the next delay. All times are passed in by the caller (in milliseconds) so that policies are deterministic and can 
+ * be driven by a simulated clock.
+ */
+public interface RefreshPolicy {
+    /**
+     * Called when the user's changes have been written to eWEB.
+     */
+    public void onWrite(long now);
+
+    /**
+     * Called for each point value returned by a refresh.
+     * 
+     * @param ref Full reference of the point
+     * @param changed True if the value differs from the last known value
+     */
+    public void onPointValue(String ref, boolean changed, long now);
+
+    /**
+     * Called when a refresh fails.
+     */
+    public void onError(long now);
+
+    /**
+     * Called when the owner of the stat moves to (or returns from) the background.
+     */
+    public void setBackground(boolean background);
+
+    /**
+     * @return The delay (in milliseconds) until the next refresh.
+     */
+    public long nextDelay(long now);
+}
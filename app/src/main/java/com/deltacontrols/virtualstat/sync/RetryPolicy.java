@@ -0,0 +1,116 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * RetryPolicy.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter and a retry budget. Each failure doubles the backoff (up to maxDelay); the actual delay is chosen at 
+ * random between half and all of the backoff so that many tablets that lost the server at the same moment do not retry in lockstep. 
+ * Once the budget is used up {@link #onFailure()} returns -1 and the caller should stop retrying (ie. trip the {@link CircuitBreaker}).
+ */
+public class RetryPolicy {
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final Random sRandom = new Random();
+
+    private final int mMaxRetries;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private int mFailures;
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    /**
+     * @param maxRetries Number of consecutive failures that are retried
+     * @param baseDelay Backoff (ms) after the first failure
+     * @param maxDelay Upper limit (ms) on the backoff
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        mMaxRetries = maxRetries;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Records a failure.
+     * 
+     * @return The delay (ms) before retrying, or -1 if the retry budget is used up.
+     */
+    public synchronized long onFailure() {
+        mFailures++;
+        if (mFailures > mMaxRetries) {
+            return -1;
+        }
+        return jitter(backoff(mBaseDelay, mMaxDelay, mFailures - 1));
+    }
+
+    /**
+     * Records a success; restores the full retry budget.
+     */
+    public synchronized void onSuccess() {
+        mFailures = 0;
+    }
+
+    /**
+     * @return Number of consecutive failures.
+     */
+    public synchronized int getFailures() {
+        return mFailures;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Static helpers
+    // --------------------------------------------------------------------------------
+    /**
+     * @return baseDelay * 2^attempt, limited to maxDelay.
+     */
+    public static long backoff(long baseDelay, long maxDelay, int attempt) {
+        return (attempt >= 30) ? maxDelay : Math.min(maxDelay, baseDelay << attempt);
+    }
+
+    /**
+     * @return A random delay between half of and all of the given delay.
+     */
+    public static long jitter(long delayMs) {
+        long half = delayMs / 2;
+        synchronized (sRandom) {
+            return half + (long) (sRandom.nextDouble() * (delayMs - half));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatRepository.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.deltacontrols.virtualstat.VirtualStat;
+
+/**
+ * Application wide repository of live stats. Activities showing the same stat share a single VirtualStat (and its data refresh) instead 
+ * of each loading their own copy and starting a new refresh when they resume; opening or leaving a screen then costs no extra request.
+ * 
+ * Activities subscribe to the stat while they are visible (onResume / onPause). The first subscriber starts the refresh if it is not 
+ * already running; once the last subscriber is gone the stat is kept refreshing (in the background) for {@link #ReleaseDelay} so the 
+ * next screen can pick it up, after which the refresh is stopped and the stat is dropped from the repository.
+ * 
+ * Stats are looked up by name; since a stat can be switched to another one in place (ie. from the stat list) the name is checked at the 
+ * time of the lookup. All methods are expected to be called on the main thread; data updates are passed to every subscriber on the 
+ * thread the stat calls back on.
+ */
+public class StatRepository {
+
+    /**
+     * A live stat and its subscribers.
+     */
+    private class Entry {
+        final VirtualStat stat;
+        final CopyOnWriteArrayList<VirtualStat.DataSyncListener> subscribers = new CopyOnWriteArrayList<VirtualStat.DataSyncListener>();
+
+        // The stat has a single listener; pass its updates on to every subscriber.
+        final VirtualStat.DataSyncListener listener = new VirtualStat.DataSyncListener() {
+            @Override
+            public void onDataUpdate() {
+                for (VirtualStat.DataSyncListener subscriber : subscribers) {
+                    subscriber.onDataUpdate();
+                }
+            }
+
+            @Override
+            public void onStatusUpdate(String status) {
+                for (VirtualStat.DataSyncListener subscriber : subscribers) {
+                    subscriber.onStatusUpdate(status);
+                }
+            }
+        };
+
+        final Runnable releaseTask = new Runnable() {
+            @Override
+            public void run() {
+                release(Entry.this);
+            }
+        };
+
+        Entry(VirtualStat stat) {
+            this.stat = stat;
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public static final long ReleaseDelay = 10000; // Time (ms) an unused stat keeps refreshing; covers switching screens and rotation
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>(); // Only a few stats are ever live; a list is enough
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Returns the live stat with the given name, or a new (empty) stat if there is none. A new stat is only added to the repository 
+     * once it is subscribed to.
+     * 
+     * @param name Stat name; may be null.
+     */
+    public synchronized VirtualStat open(String name) {
+        if ((name != null) && !name.isEmpty()) {
+            for (Entry entry : mEntries) {
+                if (name.equals(entry.stat.Name)) {
+                    return entry.stat;
+                }
+            }
+        }
+        return new VirtualStat();
+    }
+
+    /**
+     * Subscribes to data updates for the stat and starts its data refresh, unless it is already running (ie. the stat was handed over by 
+     * another screen); in that case the refresh just carries on.
+     */
+    public synchronized void subscribe(VirtualStat stat, VirtualStat.DataSyncListener subscriber) {
+        Entry entry = find(stat);
+        if (entry == null) {
+            entry = new Entry(stat);
+            mEntries.add(entry);
+            stat.setDataSyncListener(entry.listener);
+        }
+
+        mHandler.removeCallbacks(entry.releaseTask);
+        entry.subscribers.addIfAbsent(subscriber);
+        stat.setBackground(false);
+
+        if (!stat.Name.isEmpty() && !stat.isDataRefreshRunning()) {
+            stat.startDataRefresh(0);
+        }
+    }
+
+    /**
+     * Unsubscribes from the stat; once the last subscriber is gone the stat is released after {@link #ReleaseDelay}, unless it is 
+     * subscribed to again.
+     */
+    public synchronized void unsubscribe(VirtualStat stat, VirtualStat.DataSyncListener subscriber) {
+        Entry entry = find(stat);
+        if (entry == null) {
+            return;
+        }
+
+        entry.subscribers.remove(subscriber);
+        if (entry.subscribers.isEmpty()) {
+            stat.setBackground(true);
+            mHandler.postDelayed(entry.releaseTask, ReleaseDelay);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        if (!entry.subscribers.isEmpty() || !mEntries.remove(entry)) {
+            return;
+        }
+
+        entry.stat.stopDataRefresh();
+        entry.stat.setDataSyncListener(null);
+        entry.stat.setBackground(false);
+    }
+
+    private Entry find(VirtualStat stat) {
+        for (Entry entry : mEntries) {
+            if (entry.stat == stat) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
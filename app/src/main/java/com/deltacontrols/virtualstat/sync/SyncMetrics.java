@@ -0,0 +1,227 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * SyncMetrics.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+
+/**
+ * Application wide instrumentation for the sync pipeline: round trip latency of reads and writes, how long user changes take to be 
+ * sent and confirmed, how stale point values are, and counts of retries and discarded responses. Everything is kept in fixed size 
+ * histograms and counters so recording does not allocate; {@link #dump()} produces a plain text report (shown on the sync metrics 
+ * debug screen) that can be compared across firmware and server versions.
+ * 
+ * All times are in milliseconds, measured with {@link SystemClock#uptimeMillis()}.
+ */
+public class SyncMetrics {
+
+    /**
+     * Histogram with fixed, roughly logarithmic, millisecond buckets.
+     */
+    public static class Histogram {
+        private static final long[] Bounds = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000 };
+
+        private final String mName;
+        private final long[] mCounts = new long[Bounds.length + 1]; // Last bucket holds everything above the last bound
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        public Histogram(String name) {
+            mName = name;
+        }
+
+        public synchronized void record(long ms) {
+            if (ms < 0) {
+                return;
+            }
+
+            int bucket = 0;
+            while ((bucket < Bounds.length) && (ms > Bounds[bucket])) {
+                bucket++;
+            }
+
+            mCounts[bucket]++;
+            mCount++;
+            mSum += ms;
+            mMax = Math.max(mMax, ms);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns an estimate of the given percentile (the upper bound of the bucket it falls in).
+         * 
+         * @param percentile 0 - 100
+         * @return Upper bound (in ms) of the bucket containing the percentile; 0 if nothing has been recorded.
+         */
+        public synchronized long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(mCount * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= target) {
+                    return (i < Bounds.length) ? Math.min(Bounds[i], mMax) : mMax;
+                }
+            }
+            return mMax;
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] = 0;
+            }
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+
+        synchronized void dump(StringBuilder out) {
+            out.append(mName).append(": n=").append(mCount);
+            if (mCount > 0) {
+                out.append(" avg=").append(mSum / mCount)
+                   .append(" p50=").append(getPercentile(50))
+                   .append(" p90=").append(getPercentile(90))
+                   .append(" p99=").append(getPercentile(99))
+                   .append(" max=").append(mMax);
+            }
+            out.append('\n');
+
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] == 0) {
+                    continue;
+                }
+                out.append("  ").append((i < Bounds.length) ? "<=" + Bounds[i] : ">" + Bounds[Bounds.length - 1])
+                   .append(": ").append(mCounts[i]).append('\n');
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    public final Histogram readLatency = new Histogram("read round trip (getMulti)");
+    public final Histogram writeLatency = new Histogram("write round trip (putMulti)");
+    public final Histogram editToSend = new Histogram("user change to put sent");
+    public final Histogram sendToConfirm = new Histogram("put sent to value confirmed");
+    public final Histogram staleness = new Histogram("point age when refreshed");
+
+    public final AtomicLong readFailures = new AtomicLong();        // Reads that returned a non 200 status
+    public final AtomicLong writeFailures = new AtomicLong();       // Writes that returned a non 200 status
+    public final AtomicLong retries = new AtomicLong();             // Failed requests that were retried
+    public final AtomicLong discardedValues = new AtomicLong();     // Values in a read response skipped as stale
+
+    private final TreeMap<String, long[]> mPointRefreshedAt = new TreeMap<String, long[]>(); // Last successful read per reference
+    private long mStartedAt = SystemClock.uptimeMillis();
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Records that a point value was refreshed from eWEB; records the age of the previous value in the staleness histogram.
+     * 
+     * @param ref Point reference (should be the same String instance each time to avoid allocation)
+     * @param now Current uptime in ms
+     */
+    public void recordPointRefreshed(String ref, long now) {
+        synchronized (mPointRefreshedAt) {
+            long[] refreshedAt = mPointRefreshedAt.get(ref);
+            if (refreshedAt == null) {
+                mPointRefreshedAt.put(ref, new long[] { now });
+                return;
+            }
+
+            staleness.record(now - refreshedAt[0]);
+            refreshedAt[0] = now;
+        }
+    }
+
+    /**
+     * Clears all metrics.
+     */
+    public void reset() {
+        readLatency.reset();
+        writeLatency.reset();
+        editToSend.reset();
+        sendToConfirm.reset();
+        staleness.reset();
+        readFailures.set(0);
+        writeFailures.set(0);
+        retries.set(0);
+        discardedValues.set(0);
+
+        synchronized (mPointRefreshedAt) {
+            mPointRefreshedAt.clear();
+        }
+        mStartedAt = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @return Plain text report of all metrics (times in ms), including the current age of every point that has been read.
+     */
+    public String dump() {
+        long now = SystemClock.uptimeMillis();
+        StringBuilder out = new StringBuilder(2048);
+
+        out.append("collected for: ").append((now - mStartedAt) / 1000).append(" s\n\n");
+
+        readLatency.dump(out);
+        writeLatency.dump(out);
+        editToSend.dump(out);
+        sendToConfirm.dump(out);
+        staleness.dump(out);
+
+        out.append('\n')
+           .append("read failures: ").append(readFailures.get()).append('\n')
+           .append("write failures: ").append(writeFailures.get()).append('\n')
+           .append("retries: ").append(retries.get()).append('\n')
+           .append("discarded stale values: ").append(discardedValues.get()).append('\n');
+
+        out.append("\npoint age:\n");
+        synchronized (mPointRefreshedAt) {
+            for (Map.Entry<String, long[]> entry : mPointRefreshedAt.entrySet()) {
+                out.append("  ").append(entry.getKey()).append(": ").append(now - entry.getValue()[0]).append('\n');
+            }
+        }
+
+        return out.toString();
+    }
+}
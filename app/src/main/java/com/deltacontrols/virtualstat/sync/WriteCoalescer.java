@@ -0,0 +1,216 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * WriteCoalescer.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.App;
+
+/**
+ * Application wide scheduler used to debounce and coalesce user writes before they are sent to eWEB. 
+ * 
+ * Every client (ie. a VirtualStat) is debounced separately; each call to {@link #requestWrite(Client, long)} pushes the client's 
+ * deadline out, and once the deadline passes the client is asked for a single batch of values which is handed to 
+ * {@link com.deltacontrols.eweb.support.api.EwebConnection#putMulti}. Since the batch is keyed by reference, the latest value per 
+ * reference always wins. All work is done on one long lived thread, regardless of how many writes are requested.
+ */
+public class WriteCoalescer {
+
+    /**
+     * Implemented by anything that wants its writes coalesced.
+     */
+    public interface Client {
+        /**
+         * Called on the coalescer thread once the debounce delay has expired. 
+         * 
+         * @return The values to put (one entry per reference); null or empty if there is nothing to send.
+         */
+        public BACnetObjectValueList collectWrites();
+
+        /**
+         * Called with the result of the putMulti issued for the batch returned by {@link #collectWrites()}.
+         */
+        public void onWriteComplete(BACnetObjectValueList result);
+    }
+
+    /**
+     * Debounce state for a single client.
+     */
+    private static class Pending {
+        long deadline;      // Time (in ms, from System.nanoTime) at which the client should be flushed
+        boolean scheduled;  // True if a flush task is queued for this client
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "WriteCoalescer";
+
+    private final ScheduledExecutorService mExecutor;
+    private final HashMap<Client, Pending> mPending = new HashMap<Client, Pending>();
+
+    // Counters; used to verify that rapid input is actually being coalesced.
+    private final AtomicLong mWritesRequested = new AtomicLong();
+    private final AtomicLong mWritesSent = new AtomicLong();
+    private final AtomicLong mBatchesSent = new AtomicLong();
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    public WriteCoalescer() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "VirtualStat-WriteCoalescer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Requests that the client be flushed after delayMs; if a flush is already pending for the client, the flush is pushed out so that 
+     * only one batch is sent once the input settles.
+     * 
+     * @param client The client to flush
+     * @param delayMs Debounce delay in milliseconds
+     */
+    public void requestWrite(Client client, long delayMs) {
+        mWritesRequested.incrementAndGet();
+
+        synchronized (mPending) {
+            Pending pending = mPending.get(client);
+            if (pending == null) {
+                pending = new Pending();
+                mPending.put(client, pending);
+            }
+
+            pending.deadline = now() + delayMs;
+
+            // Re-use the queued task if there is one; it will re-arm itself until the deadline is reached.
+            if (!pending.scheduled) {
+                pending.scheduled = true;
+                schedule(client, delayMs);
+            }
+        }
+    }
+
+    /**
+     * @return Number of times a write has been requested (ie. number of user changes).
+     */
+    public long getWritesRequested() {
+        return mWritesRequested.get();
+    }
+
+    /**
+     * @return Number of values actually sent to eWEB.
+     */
+    public long getWritesSent() {
+        return mWritesSent.get();
+    }
+
+    /**
+     * @return Number of putMulti requests sent to eWEB.
+     */
+    public long getBatchesSent() {
+        return mBatchesSent.get();
+    }
+
+    private void schedule(final Client client, long delayMs) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(client);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimeout(Client client) {
+        synchronized (mPending) {
+            Pending pending = mPending.get(client);
+            if (pending == null) {
+                return;
+            }
+
+            // More input arrived while we were waiting, wait for it to settle.
+            long remaining = pending.deadline - now();
+            if (remaining > 0) {
+                schedule(client, remaining);
+                return;
+            }
+
+            mPending.remove(client);
+        }
+
+        flush(client);
+    }
+
+    private void flush(final Client client) {
+        try {
+            BACnetObjectValueList batch = client.collectWrites();
+            if ((batch == null) || batch.isEmpty()) {
+                return;
+            }
+
+            mBatchesSent.incrementAndGet();
+            mWritesSent.addAndGet(batch.size());
+
+            final long sentAt = now();
+            App.getEwebConnection().putMulti(batch, new GenericCallback<BACnetObjectValueList>() {
+                @Override
+                public void onCallback(BACnetObjectValueList result) {
+                    App.getSyncMetrics().writeLatency.record(now() - sentAt);
+                    client.onWriteComplete(result);
+                }
+            });
+        } 
+        catch (Exception e) {
+            Log.e(TAG, "flush: " + e.getMessage());
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
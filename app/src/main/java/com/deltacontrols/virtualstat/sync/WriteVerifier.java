@@ -0,0 +1,219 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * WriteVerifier.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.App;
+import com.deltacontrols.virtualstat.points.PointValue;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+
+/**
+ * Confirms a put by re-reading only the references that were written, on a short escalating schedule ({@link #VerifyDelays}), instead of 
+ * waiting for the next full refresh. Verification stops as soon as the server has converged: every written reference either returned 
+ * the value that was written, or returned the same value on two reads in a row (ie. the point was released to a value the server 
+ * controls, such as a fan going back to auto). Values are compared by meaning rather than text (ie. "21" and "21.0" are the same analog 
+ * value).
+ * 
+ * One verifier is used per client; starting a new verification replaces the current one. Scheduling is done on the main looper.
+ */
+public class WriteVerifier {
+
+    /**
+     * Implemented by anything that wants its writes verified.
+     */
+    public interface Client {
+        /**
+         * Called with the result of each verification read; the result only contains the written references.
+         */
+        public void onVerifyResult(BACnetObjectValueList result);
+
+        /**
+         * Called once verification is finished (converged, failed, or out of retries).
+         * 
+         * @param converged True if the server converged before verification finished.
+         */
+        public void onVerifyComplete(boolean converged);
+    }
+
+    // --------------------------------------------------------------------------------
+    // Properties
+    // --------------------------------------------------------------------------------
+    private static final String TAG = "WriteVerifier";
+
+    public static final long[] VerifyDelays = { 500, 2000, 5000 }; // Time (ms) after the put completed at which each verification read is made
+
+    private final Client mClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private BACnetObjectValueList mRequest;                                      // References to read
+    private final HashMap<String, PointValue> mExpected = new HashMap<String, PointValue>(); // Written value per lower case reference
+    private final HashMap<String, PointValue> mLastRead = new HashMap<String, PointValue>(); // Value returned by the previous verification read
+    private int mStep;          // Index into VerifyDelays of the next read
+    private int mSession;       // Incremented on start/cancel so late results from an old verification are ignored
+
+    private Runnable mReadTask = new Runnable() {
+        @Override
+        public void run() {
+            read();
+        }
+    };
+
+    // --------------------------------------------------------------------------------
+    // Constructors
+    // --------------------------------------------------------------------------------
+    public WriteVerifier(Client client) {
+        mClient = client;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------------------
+    /**
+     * Starts verifying the given put; replaces any verification in progress.
+     * 
+     * @param written The values that were put (as sent to putMulti).
+     */
+    public synchronized void start(BACnetObjectValueList written) {
+        cancel();
+
+        mRequest = new BACnetObjectValueList();
+        for (Map.Entry<String, BACnetObjectValue> entry : written.entrySet()) {
+            BACnetObjectValue obj = new BACnetObjectValue(entry.getKey());
+            obj.via.property = entry.getValue().via.property;
+            mRequest.put(entry.getKey(), obj);
+            mExpected.put(entry.getKey().toLowerCase(), PointValue.parse(entry.getValue().value, VirtualStatPoint.getType(entry.getKey())));
+        }
+
+        if (!mRequest.isEmpty()) {
+            mHandler.postDelayed(mReadTask, VerifyDelays[0]);
+        }
+    }
+
+    /**
+     * Stops any verification in progress; a read that is already out will be ignored.
+     */
+    public synchronized void cancel() {
+        mHandler.removeCallbacks(mReadTask);
+        mSession++;
+        mStep = 0;
+        mRequest = null;
+        mExpected.clear();
+        mLastRead.clear();
+    }
+
+    private void read() {
+        synchronized (this) {
+            if (mRequest == null) {
+                return;
+            }
+
+            final int session = mSession;
+            final long sentAt = SystemClock.uptimeMillis();
+            try {
+                App.getEwebConnection().getMulti(mRequest, new GenericCallback<BACnetObjectValueList>() {
+                    @Override
+                    public void onCallback(BACnetObjectValueList result) {
+                        App.getSyncMetrics().readLatency.record(SystemClock.uptimeMillis() - sentAt);
+                        onReadResult(session, result);
+                    }
+                });
+                return;
+            } 
+            catch (Exception e) {
+                Log.e(TAG, "getMulti: " + e.getMessage());
+                cancel(); // No result will come back; finish now instead of waiting forever.
+            }
+        }
+        mClient.onVerifyComplete(false);
+    }
+
+    private void onReadResult(int session, BACnetObjectValueList result) {
+        boolean converged;
+        boolean done;
+
+        synchronized (this) {
+            if (session != mSession) {
+                return; // Verification was cancelled or restarted while the read was out.
+            }
+
+            converged = (result.statusCode == 200) && hasConverged(result);
+            mStep++;
+            done = converged || (result.statusCode != 200) || (mStep >= VerifyDelays.length);
+
+            if (!done) {
+                mHandler.postDelayed(mReadTask, VerifyDelays[mStep] - VerifyDelays[mStep - 1]);
+            }
+        }
+
+        if (result.statusCode == 200) {
+            mClient.onVerifyResult(result);
+        }
+
+        if (done) {
+            synchronized (this) {
+                if (session == mSession) {
+                    cancel();
+                }
+            }
+            mClient.onVerifyComplete(converged);
+        }
+    }
+
+    /**
+     * @return True if every written reference returned the written value, or the same value as the previous verification read.
+     */
+    synchronized boolean hasConverged(BACnetObjectValueList result) {
+        boolean converged = true;
+
+        for (Map.Entry<String, PointValue> expected : mExpected.entrySet()) {
+            BACnetObjectValue obj = result.get(expected.getKey());
+            PointValue value = (obj != null) ? PointValue.parse(obj.value, VirtualStatPoint.getType(expected.getKey())) : PointValue.NotInitialized;
+            PointValue lastRead = mLastRead.put(expected.getKey(), value);
+
+            if (!value.isInitialized() || !(value.sameAs(expected.getValue()) || value.sameAs(lastRead))) {
+                converged = false;
+            }
+        }
+
+        return converged;
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * RefreshAllocationTest.java
+ */
+package com.deltacontrols.virtualstat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+
+/**
+ * Microbenchmark of applying a refresh response to a stat: once the reference index is built, a refresh that repeats the current values 
+ * must not allocate anything in the model. Allocation is measured with the JVM's per thread allocation counter; the test is skipped on 
+ * a JVM without one (it is a HotSpot extension).
+ */
+public class RefreshAllocationTest {
+
+    static final int Warmup = 20000;     // Lets the JIT settle (and the metrics see every reference once)
+    static final int Refreshes = 100000;
+
+    /**
+     * @return The allocation counter, or null if the JVM does not have one.
+     */
+    static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        return (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) ? hotspot : null;
+    }
+
+    /**
+     * Builds a response (as eWEB returns it; lower case references) with each point's current value.
+     */
+    static BACnetObjectValueList currentValues(VirtualStat stat) {
+        BACnetObjectValueList response = new BACnetObjectValueList();
+        response.statusCode = 200;
+        for (VirtualStatPoint point : stat.getPoints(false)) {
+            BACnetObjectValue obj = new BACnetObjectValue(point.getFullRef().toLowerCase());
+            obj.value = point.getValue();
+            response.put(point.getFullRef().toLowerCase(), obj);
+        }
+        return response;
+    }
+
+    @Test
+    public void steadyStateRefreshDoesNotAllocate() {
+        com.sun.management.ThreadMXBean counter = allocationCounter();
+        Assume.assumeTrue(counter != null);
+        long thread = Thread.currentThread().getId();
+
+        VirtualStat stat = new VirtualStat();
+        stat.loadFromJSON(VirtualStatTest.StatJSON);
+        BACnetObjectValueList response = currentValues(stat);
+
+        for (int i = 0; i < Warmup; i++) {
+            stat.applyReadValues(response, i, false);
+        }
+
+        long before = counter.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < Refreshes; i++) {
+            stat.applyReadValues(response, Warmup + i, false);
+        }
+        long allocated = counter.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < Refreshes); // Less than a byte per refresh; counter granularity aside, none
+    }
+
+    @Test
+    public void changedValuePublishesSnapshot() {
+        VirtualStat stat = new VirtualStat();
+        stat.loadFromJSON(VirtualStatTest.StatJSON);
+        BACnetObjectValueList response = currentValues(stat);
+
+        StatSnapshot unchanged = stat.getSnapshot();
+        stat.applyReadValues(response, 0, false);
+        assertSame(unchanged, stat.getSnapshot());
+
+        response.get(stat.Temp.getFullRef().toLowerCase()).value = "22.5";
+        stat.applyReadValues(response, 1, false);
+        assertNotSame(unchanged, stat.getSnapshot());
+        assertEquals("22.5", stat.getSnapshot().temp.value);
+    }
+}
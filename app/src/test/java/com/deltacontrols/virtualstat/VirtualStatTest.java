@@ -0,0 +1,81 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * VirtualStatTest.java
+ */
+package com.deltacontrols.virtualstat;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.deltacontrols.virtualstat.points.PointSchema;
+import com.deltacontrols.virtualstat.points.VirtualStatPoint;
+
+/**
+ * Saving and re-loading a stat (as the activities do through the stat store).
+ */
+public class VirtualStatTest {
+
+    static final String StatJSON = "{\"Room 1\":{"
+            + "\"TEMP\":{\"$base\":\"Real\",\"value\":\"21.5\",\"physical\":\"//S/1.AI1\",\"displayName\":\"Temp\"},"
+            + "\"FAN\":{\"$base\":\"Unsigned\",\"value\":\"2\",\"physical\":\"//S/1.MV1\",\"displayName\":\"Fan\"},"
+            + "\"LIGHTS1\":{\"$base\":\"Enumerated\",\"value\":\"active\",\"physical\":\"//S/1.BV1\",\"displayName\":\"Lights\"}}}";
+
+    /**
+     * Settings changes the point references (which clears the point names) and then saves the stat; the data type and value must survive.
+     */
+    @Test
+    public void savedStatKeepsPointsAfterReferenceChange() {
+        VirtualStat stat = new VirtualStat();
+        stat.loadFromJSON(StatJSON);
+        stat.Temp.setFullRef("//S/1.AI2");
+        stat.Temp.setValue("19.5", VirtualStatPoint.SetBy.SYSTEM);
+
+        VirtualStat fromDescriptor = new VirtualStat();
+        fromDescriptor.loadFromDescriptor(stat.createDescriptor());
+        assertTempReloaded(fromDescriptor);
+
+        VirtualStat fromJSON = new VirtualStat();
+        fromJSON.loadFromJSON(stat.createSystemJSONString());
+        assertTempReloaded(fromJSON);
+
+        // Points that were not changed are unaffected.
+        assertEquals("Fan", fromDescriptor.getPoint(PointSchema.FAN).getName());
+        assertEquals("2", fromDescriptor.getPoint(PointSchema.FAN).getValue());
+    }
+
+    private static void assertTempReloaded(VirtualStat stat) {
+        assertEquals("Room 1", stat.Name);
+        assertEquals("//S/1.AI2", stat.Temp.getFullRef());
+        assertEquals("Real", stat.Temp.getDataType());
+        assertEquals("19.5", stat.Temp.getValue());
+        assertEquals("", stat.Temp.getName());
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatJSONWriterBenchmark.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.deltacontrols.virtualstat.StatSnapshot;
+import com.deltacontrols.virtualstat.VirtualStat;
+import com.deltacontrols.virtualstat.points.PointSchema;
+
+/**
+ * JMH style benchmark of the system JSON of a stat (written on every refresh of the summary): {@link StatJSONWriter} against the 
+ * String.format implementation it replaced. Each is warmed up, then measured over several rounds; the best round is reported as time 
+ * and allocation per operation. Reports only; timings depend on the machine and on what else runs, so it is not part of the test run 
+ * (remove the @Ignore to run it). Correctness is covered by {@link StatJSONWriterTest}.
+ */
+@Ignore("Benchmark; run by hand")
+public class StatJSONWriterBenchmark {
+
+    static final int WarmupRounds = 5;
+    static final int Rounds = 10;
+    static final int OpsPerRound = 5000;
+
+    /**
+     * The String.format implementation StatJSONWriter replaced (as it was in VirtualStat.createSystemJSONString), on a snapshot.
+     */
+    static String formatJSON(StatSnapshot stat) {
+        StatSnapshot.PointSnapshot[] points = { stat.temp, stat.tempSetpoint, stat.outdoorTemp, stat.lights1, stat.lights2, stat.lights3, 
+                stat.lights4, stat.fan, stat.fanOverride, stat.blinds, stat.occupancy, stat.occupancy };
+        String[] keys = { "TEMP", "TEMP_SP", "OUTDOOR_TEMP", "LIGHTS1", "LIGHTS2", "LIGHTS3", "LIGHTS4", "FAN", "FAN_OVERRIDE", "BLINDS", 
+                "OCCUPANCY", "TIMED_OVERRIDE" };
+        String[] args = new String[1 + 5 * points.length];
+
+        args[0] = stat.name;
+        for (int i = 0; i < points.length; i++) {
+            args[1 + 5 * i] = keys[i];
+            args[2 + 5 * i] = points[i].dataType;
+            args[3 + 5 * i] = points[i].value;
+            args[4 + 5 * i] = points[i].ref;
+            args[5 + 5 * i] = points[i].name;
+        }
+
+        return String.format("{ \"%s\": { " + // name
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // TEMP
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // TEMP_SP
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // OUTDOOR_TEMP
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS1
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS2
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS3
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // LIGHTS4
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // FAN
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }, " + // FAN_OVERRIDE
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" },  " + // BLINDS
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" },  " + // OCCUPANCY
+                "%s: { $base: \"%s\", value: \"%s\", physical: \"%s\", displayName: \"%s\" }  " + // TIMED_OVERRIDE
+                "}}", (Object[]) args);
+    }
+
+    interface Op {
+        String run();
+    }
+
+    /**
+     * Result of one benchmark: best round, per operation.
+     */
+    static class Result {
+        long nanos = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        int length;
+
+        @Override
+        public String toString() {
+            return nanos + " ns/op, " + ((bytes >= 0) ? (bytes + " B/op") : "allocation not measured");
+        }
+    }
+
+    /**
+     * @return Bytes allocated by this thread so far; -1 if the JVM cannot tell (the counter is a HotSpot extension).
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Result measure(Op op) {
+        Result result = new Result();
+        int sink = 0;
+
+        for (int round = 0; round < WarmupRounds + Rounds; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < OpsPerRound; i++) {
+                sink += op.run().length();
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = (bytes >= 0) ? allocatedBytes() - bytes : -1;
+
+            if (round >= WarmupRounds) {
+                result.nanos = Math.min(result.nanos, nanos / OpsPerRound);
+                result.bytes = (bytes >= 0) ? Math.min(result.bytes, bytes / OpsPerRound) : -1;
+            }
+        }
+        result.length = sink / ((WarmupRounds + Rounds) * OpsPerRound);
+        return result;
+    }
+
+    @Test
+    public void writerAgainstStringFormat() {
+        VirtualStat stat = new VirtualStat();
+        stat.loadFromJSON(StatJSONWriterTest.StatJSON);
+        final StatSnapshot snapshot = stat.getSnapshot();
+
+        Result writer = measure(new Op() {
+            @Override
+            public String run() {
+                return StatJSONWriter.toJSONString(snapshot);
+            }
+        });
+        Result format = measure(new Op() {
+            @Override
+            public String run() {
+                return formatJSON(snapshot);
+            }
+        });
+
+        System.out.println("createSystemJSONString, " + PointSchema.SlotCount + " points: StatJSONWriter " + writer + " (" + writer.length 
+                + " chars); String.format " + format + " (" + format.length + " chars)");
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * StatJSONWriterTest.java
+ */
+package com.deltacontrols.virtualstat.store;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.deltacontrols.virtualstat.VirtualStat;
+
+/**
+ * The system JSON written for a stat loads back to the same stat.
+ */
+public class StatJSONWriterTest {
+
+    static final String StatJSON = "{\"Room 1\":{"
+            + "\"TEMP\":{\"$base\":\"Real\",\"value\":\"21.5\",\"physical\":\"//MainSite/5600.AI1\",\"displayName\":\"Room Temp\"},"
+            + "\"TEMP_SP\":{\"$base\":\"Real\",\"value\":\"22\",\"physical\":\"//MainSite/5600.AV1\",\"displayName\":\"Setpoint\"},"
+            + "\"OUTDOOR_TEMP\":{\"$base\":\"Real\",\"value\":\"-4.5\",\"physical\":\"//MainSite/5600.AI2\",\"displayName\":\"Outdoor\"},"
+            + "\"LIGHTS1\":{\"$base\":\"Enumerated\",\"value\":\"Active\",\"physical\":\"//MainSite/5600.BV1\",\"displayName\":\"Lights\"},"
+            + "\"LIGHTS2\":{\"$base\":\"Enumerated\",\"value\":\"Inactive\",\"physical\":\"//MainSite/5600.BV2\",\"displayName\":\"Desk \\\"A\\\"\"},"
+            + "\"FAN\":{\"$base\":\"Unsigned\",\"value\":\"2\",\"physical\":\"//MainSite/5600.MV1\",\"displayName\":\"Fan\"},"
+            + "\"BLINDS\":{\"$base\":\"Unsigned\",\"value\":\"1\",\"physical\":\"//MainSite/5600.MV2\",\"displayName\":\"Blinds\"}}}";
+
+    @Test
+    public void roundTrip() {
+        VirtualStat stat = new VirtualStat();
+        stat.loadFromJSON(StatJSON);
+        String json = StatJSONWriter.toJSONString(stat.getSnapshot());
+
+        VirtualStat loaded = new VirtualStat();
+        loaded.loadFromJSON(json);
+        assertEquals(json, StatJSONWriter.toJSONString(loaded.getSnapshot()));
+        assertEquals("Desk \"A\"", loaded.Lights2.getName());
+    }
+}
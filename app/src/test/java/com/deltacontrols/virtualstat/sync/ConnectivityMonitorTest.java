@@ -0,0 +1,223 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * ConnectivityMonitorTest.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+
+/**
+ * Drives the monitor with a fake network source, a validator whose results are handed out by the test and a scheduler whose delayed 
+ * tasks are run by the test.
+ */
+public class ConnectivityMonitorTest {
+
+    static class FakeSource implements ConnectivityMonitor.ConnectivitySource {
+        boolean connected;
+        Callback callback;
+
+        @Override
+        public void start(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void stop() {
+            callback = null;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        void change(boolean connected) {
+            this.connected = connected;
+            if (callback != null) {
+                callback.onConnectivityChanged(connected);
+            }
+        }
+    }
+
+    static class FakeValidator implements ConnectivityMonitor.SessionValidator {
+        final ArrayList<GenericCallback<Boolean>> pending = new ArrayList<GenericCallback<Boolean>>();
+
+        @Override
+        public void validate(GenericCallback<Boolean> callback) {
+            pending.add(callback);
+        }
+
+        void complete(boolean valid) {
+            pending.remove(0).onCallback(valid);
+        }
+    }
+
+    static class FakeScheduler implements ConnectivityMonitor.Scheduler {
+        final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+        final ArrayList<Long> delays = new ArrayList<Long>();
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(task);
+            delays.add(delayMs);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            int i = tasks.indexOf(task);
+            if (i >= 0) {
+                tasks.remove(i);
+                delays.remove(i);
+            }
+        }
+
+        void runNext() {
+            delays.remove(0);
+            tasks.remove(0).run();
+        }
+    }
+
+    private FakeSource mSource;
+    private FakeValidator mValidator;
+    private FakeScheduler mScheduler;
+    private ConnectivityMonitor mMonitor;
+    private int mReconnects;
+
+    @Before
+    public void setUp() {
+        mSource = new FakeSource();
+        mValidator = new FakeValidator();
+        mScheduler = new FakeScheduler();
+        mMonitor = new ConnectivityMonitor(mSource, mValidator, mScheduler);
+        mMonitor.addListener(new ConnectivityMonitor.Listener() {
+            @Override
+            public void onReconnected() {
+                mReconnects++;
+            }
+        });
+        mMonitor.start();
+    }
+
+    @Test
+    public void reconnectIsReportedOnlyAfterValidation() {
+        mSource.change(true);
+        assertEquals(1, mValidator.pending.size());
+        assertEquals(0, mReconnects);
+
+        mValidator.complete(true);
+        assertEquals(1, mReconnects);
+        assertEquals(1, mMonitor.reconnects.get());
+
+        // Already connected; not a reconnect
+        mSource.change(true);
+        assertTrue(mValidator.pending.isEmpty());
+    }
+
+    @Test
+    public void networkChangesWhileValidatingAreFoldedIntoOneMoreValidation() {
+        mSource.change(true);
+        mSource.change(false);
+        mSource.change(true);
+        mSource.change(false);
+        mSource.change(true);
+        assertEquals(1, mValidator.pending.size());
+
+        mValidator.complete(true); // Out of date; validated again
+        assertEquals(0, mReconnects);
+        assertEquals(1, mValidator.pending.size());
+
+        mValidator.complete(true);
+        assertEquals(1, mReconnects);
+    }
+
+    @Test
+    public void failedValidationIsRetriedWithBackoff() {
+        mSource.change(true);
+
+        long lastBackoff = 0;
+        for (int i = 0; i < 3; i++) {
+            mValidator.complete(false);
+            assertEquals(1, mScheduler.tasks.size());
+
+            // Jittered between half and all of the doubled backoff
+            long delay = mScheduler.delays.get(0);
+            long backoff = RetryPolicy.backoff(2000, 60000, i);
+            assertTrue(delay >= backoff / 2 && delay <= backoff);
+            assertTrue(backoff > lastBackoff);
+            lastBackoff = backoff;
+
+            mScheduler.runNext();
+            assertEquals(1, mValidator.pending.size());
+        }
+
+        mValidator.complete(true);
+        assertEquals(1, mReconnects);
+        assertEquals(3, mMonitor.failedValidations.get());
+        assertEquals(3, mMonitor.retries.get());
+        assertTrue(mScheduler.tasks.isEmpty());
+    }
+
+    @Test
+    public void retriesStopWhenBudgetIsUsedUpOrNetworkGoesDown() {
+        mSource.change(true);
+        for (int i = 0; i < 5; i++) {
+            mValidator.complete(false);
+            mScheduler.runNext();
+        }
+        mValidator.complete(false); // Sixth failure; wait for the next network change
+        assertTrue(mScheduler.tasks.isEmpty());
+        assertTrue(mValidator.pending.isEmpty());
+
+        // The next network-up starts over with a full budget
+        mSource.change(false);
+        mSource.change(true);
+        mValidator.complete(false);
+        assertEquals(1, mScheduler.tasks.size());
+        assertTrue(mScheduler.delays.get(0) <= 2000);
+
+        // Network drops while waiting to retry: the retry is dropped
+        mSource.change(false);
+        assertTrue(mScheduler.tasks.isEmpty());
+        assertFalse(mMonitor.isConnected());
+
+        mSource.change(true);
+        mValidator.complete(true);
+        assertEquals(1, mReconnects);
+    }
+}
@@ -0,0 +1,160 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * OfflineWriteQueueTest.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+import com.deltacontrols.virtualstat.store.StoreThread;
+
+public class OfflineWriteQueueTest {
+
+    static final String Setpoint = "/.bacnet/MainSite/5601/analog-value,1";
+    static final String Fan = "/.bacnet/MainSite/5601/multi-state-value,2";
+
+    private File mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mJournal = File.createTempFile("offline", ".journal");
+        mJournal.delete();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        drainStoreThread(); // Journal writes may still be queued; let them land before deleting
+        mJournal.delete();
+        new File(mJournal.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Waits until everything submitted to the store thread so far has run.
+     */
+    static void drainStoreThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        StoreThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await(5, TimeUnit.SECONDS);
+    }
+
+    static BACnetObjectValueList serverValues(String... refsAndValues) {
+        BACnetObjectValueList current = new BACnetObjectValueList();
+        current.statusCode = 200;
+        for (int i = 0; i < refsAndValues.length; i += 2) {
+            BACnetObjectValue obj = new BACnetObjectValue(refsAndValues[i]);
+            obj.value = refsAndValues[i + 1];
+            current.put(refsAndValues[i].toLowerCase(), obj);
+        }
+        return current;
+    }
+
+    @Test
+    public void journalSurvivesRestartAndNewerWritesWin() throws InterruptedException {
+        OfflineWriteQueue queue = new OfflineWriteQueue(mJournal);
+        for (int i = 0; i < 50; i++) { // Enough superseded records to compact on the way
+            queue.enqueue(new OfflineWriteQueue.Entry(Setpoint, Integer.toString(20 + i), "21", "Real", 1000 + i));
+        }
+        queue.enqueue(new OfflineWriteQueue.Entry(Fan, "2", "1", "Unsigned", 2000));
+        drainStoreThread();
+
+        // Restart; a write made before the journal is loaded is newer than the one in it
+        OfflineWriteQueue restarted = new OfflineWriteQueue(mJournal);
+        restarted.enqueue(new OfflineWriteQueue.Entry(Fan, "3", "1", "Unsigned", 3000));
+        drainStoreThread();
+
+        assertEquals(2, restarted.size());
+        assertEquals("69", restarted.get(Setpoint).value);
+        assertEquals("3", restarted.get(Fan).value);
+
+        drainStoreThread();
+        OfflineWriteQueue again = new OfflineWriteQueue(mJournal);
+        drainStoreThread();
+        assertEquals("3", again.get(Fan).value);
+    }
+
+    @Test
+    public void directWriteSupersedesQueuedWrite() throws InterruptedException {
+        OfflineWriteQueue queue = new OfflineWriteQueue(mJournal);
+        queue.enqueue(new OfflineWriteQueue.Entry(Setpoint, "22", "21", "Real", 1000));
+        queue.enqueue(new OfflineWriteQueue.Entry(Fan, "2", "1", "Unsigned", 1000));
+        queue.supersede(Setpoint.toUpperCase()); // Newer value was put directly
+        drainStoreThread();
+
+        assertNull(queue.get(Setpoint));
+        assertEquals("2", queue.get(Fan).value);
+
+        OfflineWriteQueue restarted = new OfflineWriteQueue(mJournal);
+        drainStoreThread();
+        assertNull(restarted.get(Setpoint));
+        assertEquals(1, restarted.size());
+    }
+
+    @Test
+    public void conflictsCompareValuesNotText() throws InterruptedException {
+        OfflineWriteQueue queue = new OfflineWriteQueue(mJournal);
+        drainStoreThread();
+
+        // Server already has the written value, formatted differently: applied, not a conflict
+        OfflineWriteQueue.Entry applied = new OfflineWriteQueue.Entry(Setpoint, "22", "21", "Real", System.currentTimeMillis());
+        queue.enqueue(applied);
+        ArrayList<OfflineWriteQueue.Entry> entries = new ArrayList<OfflineWriteQueue.Entry>();
+        entries.add(applied);
+        queue.onCurrentValues(entries, serverValues(Setpoint, "22.0"));
+        assertNull(queue.get(Setpoint));
+        assertEquals(0, queue.conflicts.get());
+
+        // Server value really changed: conflict, server wins
+        OfflineWriteQueue.Entry changed = new OfflineWriteQueue.Entry(Fan, "3", "1", "Unsigned", System.currentTimeMillis());
+        queue.enqueue(changed);
+        entries.clear();
+        entries.add(changed);
+        queue.onCurrentValues(entries, serverValues(Fan, "2"));
+        assertNull(queue.get(Fan));
+        assertEquals(1, queue.conflicts.get());
+    }
+}
@@ -0,0 +1,250 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * RefreshPolicySimulatorTest.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Deterministic simulation of a stat being used the way the app uses it: shown for 50 minutes (with a screen rotation, which 
+ * unsubscribes and subscribes again), then left; the stat repository keeps refreshing it in the background for 
+ * {@link StatRepository#ReleaseDelay} and then releases it. Compares the adaptive policy with the fixed 10 s loop VirtualStat used 
+ * before, on the number of requests and on the staleness of the values shown: the age of the last refresh (time averaged, and its 
+ * maximum) and the time from a change on the server to the refresh that reads it.
+ */
+public class RefreshPolicySimulatorTest {
+
+    static final long FixedInterval = 10000;
+    static final long[][] Shown = { { 0, 20 * 60000 }, { 20 * 60000 + 1500, 50 * 60000 } }; // Stat subscribed to [from, to)
+    static final long End = 50 * 60000 + StatRepository.ReleaseDelay;                       // Released; refreshes stop
+    static final long[] Writes = { 5 * 60000, 40 * 60000 };                                 // User writes
+
+    /**
+     * Result of a simulation run.
+     */
+    static class Run {
+        int requests;
+        double ageIntegral;     // Integral of the age of the shown values over foreground time (ms^2)
+        long foregroundTime;
+        long maxAge;
+        long totalLatency;      // Change on the server to the refresh that reads it
+        long maxLatency;
+        int changesSeen;
+
+        double meanAge() {
+            return ageIntegral / foregroundTime;
+        }
+
+        double meanLatency() {
+            return (double) totalLatency / changesSeen;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, age mean %.0f ms, max %d ms, change latency mean %.0f ms, max %d ms (%d changes)", 
+                    requests, meanAge(), maxAge, meanLatency(), maxLatency, changesSeen);
+        }
+    }
+
+    @Test
+    public void fewerRequestsWithinStalenessBound() {
+        long[][] changes = serverChanges();
+
+        Run fixed = simulate(new FixedRefreshPolicy(FixedInterval), changes);
+        Run adaptive = simulate(new AdaptiveRefreshPolicy(), changes);
+
+        assertTrue(fixed + " / " + adaptive, adaptive.requests < fixed.requests * 2 / 3);
+        assertTrue(adaptive.toString(), adaptive.maxAge <= AdaptiveRefreshPolicy.MaxForegroundInterval);
+        assertTrue(adaptive.toString(), adaptive.maxLatency <= AdaptiveRefreshPolicy.MaxForegroundInterval);
+    }
+
+    @Test
+    public void stableForegroundBacksOffUpToStalenessBound() {
+        AdaptiveRefreshPolicy policy = new AdaptiveRefreshPolicy();
+        long now = 0;
+        long delay = 0;
+
+        // Stable values: the delay grows past the fixed period, but never past the bound.
+        for (int i = 0; i < 20; i++) {
+            delay = policy.nextDelay(now);
+            assertTrue(delay <= AdaptiveRefreshPolicy.MaxForegroundInterval);
+            now += delay;
+        }
+        assertEquals(AdaptiveRefreshPolicy.MaxForegroundInterval, delay);
+
+        // A write, or a change, brings it back to (at most) the fixed period.
+        policy.onWrite(now);
+        assertTrue(policy.nextDelay(now) <= AdaptiveRefreshPolicy.BaseInterval * 2);
+        policy.onPointValue("point", true, now);
+        assertTrue(policy.nextDelay(now) <= AdaptiveRefreshPolicy.BaseInterval);
+
+        // The background backs off further; the foreground bound applies again right after.
+        policy.setBackground(true);
+        for (int i = 0; i < 20; i++) {
+            now += policy.nextDelay(now);
+        }
+        assertTrue(policy.nextDelay(now) > AdaptiveRefreshPolicy.MaxForegroundInterval);
+        policy.setBackground(false);
+        assertTrue(policy.nextDelay(now) <= AdaptiveRefreshPolicy.MaxForegroundInterval);
+    }
+
+    /**
+     * @return Change times (ms) per point: a temperature drifting every few minutes, a setpoint and lights changed now and then, and an 
+     *         occupancy point that flaps for a few minutes.
+     */
+    static long[][] serverChanges() {
+        Random random = new Random(42);
+        ArrayList<Long> temp = new ArrayList<Long>();
+        ArrayList<Long> occupancy = new ArrayList<Long>();
+
+        for (long t = 0; t < End; t += 120000 + random.nextInt(180000)) {
+            temp.add(t);
+        }
+        for (long t = 30 * 60000; t < 34 * 60000; t += 6000 + random.nextInt(4000)) {
+            occupancy.add(t);
+        }
+        for (long t = 44 * 60000; t < 47 * 60000; t += 6000 + random.nextInt(4000)) {
+            occupancy.add(t);
+        }
+
+        return new long[][] { 
+                toArray(temp), 
+                { 5 * 60000 + 200, 40 * 60000 + 300 },  // Setpoint (written by the user)
+                { 12 * 60000 + 4321, 27 * 60000 + 987, 41 * 60000 + 55 }, // Lights
+                toArray(occupancy) };
+    }
+
+    /**
+     * Runs the policy until the stat is released against the given server changes, as VirtualStat drives it: a refresh reports every 
+     * point (changed or not), then asks for the next delay; coming back to the foreground the pending refresh is re-scheduled one 
+     * foreground delay after the last refresh (see VirtualStat.setBackground).
+     */
+    static Run simulate(RefreshPolicy policy, long[][] changes) {
+        Run run = new Run();
+        int[] nextChange = new int[changes.length];
+        int nextWrite = 0;
+        boolean background = false;
+        long now = 0;
+        long next = 0;
+
+        while (next < End) {
+            // Background transitions and writes that happen before the next refresh.
+            boolean inBackground = isBackground(next);
+            if (inBackground != background) {
+                long at = transitionBefore(now, next);
+                policy.setBackground(inBackground);
+                background = inBackground;
+                if (!inBackground) {
+                    next = Math.min(next, Math.max(at, now + policy.nextDelay(at)));
+                }
+            }
+            while ((nextWrite < Writes.length) && (Writes[nextWrite] <= next)) {
+                policy.onWrite(Writes[nextWrite++]);
+            }
+
+            // Age of the shown values until this refresh
+            addAge(run, now, next);
+
+            // Refresh
+            now = next;
+            run.requests++;
+            for (int p = 0; p < changes.length; p++) {
+                boolean changed = false;
+                while ((nextChange[p] < changes[p].length) && (changes[p][nextChange[p]] <= now)) {
+                    long changedAt = changes[p][nextChange[p]++];
+                    changed = true;
+                    if (!isBackground(changedAt)) {
+                        long latency = now - changedAt;
+                        run.totalLatency += latency;
+                        run.maxLatency = Math.max(run.maxLatency, latency);
+                        run.changesSeen++;
+                    }
+                }
+                policy.onPointValue("point" + p, changed, now);
+            }
+            next = now + policy.nextDelay(now);
+        }
+        addAge(run, now, End);
+        return run;
+    }
+
+    /**
+     * Adds the age of values refreshed at lastRead, shown until 'to', over the foreground part of [lastRead, to) (one ms steps).
+     */
+    static void addAge(Run run, long lastRead, long to) {
+        for (long t = lastRead; t < to; t++) {
+            if (!isBackground(t)) {
+                long age = t - lastRead;
+                run.ageIntegral += age;
+                run.foregroundTime++;
+                run.maxAge = Math.max(run.maxAge, age);
+            }
+        }
+    }
+
+    static boolean isBackground(long t) {
+        for (long[] period : Shown) {
+            if ((t >= period[0]) && (t < period[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The time of the first foreground/background transition in (from, to]; to if there is none.
+     */
+    static long transitionBefore(long from, long to) {
+        long at = to;
+        for (long[] period : Shown) {
+            for (long t : period) {
+                if ((t > from) && (t <= at)) {
+                    at = t;
+                }
+            }
+        }
+        return at;
+    }
+
+    static long[] toArray(ArrayList<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+/**
+ * WriteVerifierTest.java
+ */
+package com.deltacontrols.virtualstat.sync;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.models.BACnetObjectValue;
+import com.deltacontrols.eweb.support.models.BACnetObjectValueList;
+
+public class WriteVerifierTest {
+
+    static final String Setpoint = OfflineWriteQueueTest.Setpoint;
+
+    private static final WriteVerifier.Client NoClient = new WriteVerifier.Client() {
+        @Override
+        public void onVerifyResult(BACnetObjectValueList result) {
+        }
+
+        @Override
+        public void onVerifyComplete(boolean converged) {
+        }
+    };
+
+    static BACnetObjectValueList written(String ref, String value) {
+        BACnetObjectValueList put = new BACnetObjectValueList();
+        BACnetObjectValue obj = new BACnetObjectValue(ref);
+        obj.via.property = "present-value";
+        obj.value = value;
+        put.put(ref, obj);
+        return put;
+    }
+
+    @Test
+    public void writtenValueConvergesWhateverItsFormat() {
+        WriteVerifier verifier = new WriteVerifier(NoClient);
+        verifier.start(written(Setpoint, "22"));
+
+        assertTrue(verifier.hasConverged(OfflineWriteQueueTest.serverValues(Setpoint, "22.0")));
+    }
+
+    @Test
+    public void releasedValueConvergesOnceStable() {
+        WriteVerifier verifier = new WriteVerifier(NoClient);
+        verifier.start(written(Setpoint, "22"));
+
+        assertFalse(verifier.hasConverged(OfflineWriteQueueTest.serverValues(Setpoint, "20")));
+        assertTrue(verifier.hasConverged(OfflineWriteQueueTest.serverValues(Setpoint, "20.0")));
+    }
+}